@@ -1,5 +1,8 @@
 package com.jsls.core;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -9,6 +12,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 import org.apache.shiro.SecurityUtils;
+import com.jsls.util.ExcelUtils;
 import com.jsls.util.WebUtils;
 
 import org.springframework.util.ClassUtils;
@@ -476,6 +480,56 @@ public class ActionInfo {
         return Result.success(success);
     }
 
+    /**
+     * 流式导入csv，边读边分批导入，内存占用与文件大小无关
+     * <p>
+     * 校验失败前已导入的批次不会回滚
+     * 
+     * @param <D>
+     * @param in
+     * @param charsetName 文件不带BOM头时使用的编码
+     * @param clazz
+     * @param progress
+     * @param action
+     * @return
+     */
+    public <D extends Importable> Result<Long> processCsvImport(InputStream in, String charsetName, Class<D> clazz,
+            Progress progress, BiFunction<? super Collection<D>, ActionInfo, Result<Long>> action) {
+        Result<Void> ivrr = Result.SUCCESS.copy();
+        Progress.Recorder recorder = progress.getRecorder();
+        Result<Void> vr;
+        try {
+            vr = ExcelUtils.importCsv(in, charsetName, clazz, recorder, rows -> {
+                List<D> batch = new ArrayList<>(rows.size());
+                for (Pair<Importable.Position, D> row : rows) {
+                    batch.add(row.getV2());
+                }
+                Result<Long> ivr = action.apply(batch, this);
+                if (ivr.isSuccess()) {
+                    recorder.applyBatch(batch.size(), 0);
+                } else {
+                    int failCount = batch.size() - ivr.getData().intValue();
+                    recorder.applyBatch(batch.size(), failCount);
+                    ivrr.setCode(ivr.getCode());
+                    ivrr.setMessage(ivr.getMessage());
+                }
+            }, false);
+        } catch (IOException e) {
+            throw new RuntimeException("读取csv文件异常:" + e.getMessage(), e);
+        }
+        if (!vr.isSuccess()) {
+            return vr.copy();
+        }
+        if (recorder.getCount() == 0) {
+            return Result.fail("导入数据为空！");
+        }
+        long success = recorder.getSuccessCount();
+        if (success == 0) {
+            return ivrr.copy();
+        }
+        return Result.success(success);
+    }
+
     public static ActionInfo useSendAction(String mode) {
         ActionInfo actionInfo = useAction(ActionInfo.TYPE_SEND, mode);
         return actionInfo;
@@ -1,5 +1,6 @@
 package com.jsls.core;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -8,11 +9,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.http.entity.ContentType;
@@ -24,6 +30,7 @@ import org.springframework.util.StringUtils;
 
 import com.jsls.util.ExcelUtils;
 import com.jsls.util.IOUtils;
+import com.jsls.util.ParallelZipWriter;
 import com.jsls.util.PdfUtils;
 import com.jsls.util.RenderUtils;
 import com.jsls.util.WebUtils;
@@ -61,6 +68,10 @@ public class ExportBiz {
     public static final ContentType CONTENT_TYPE_IMAGE_GIF = ContentType.IMAGE_GIF;
     public static final ContentType CONTENT_TYPE_IMAGE_PNG = ContentType.IMAGE_PNG;
 
+    /**
+     * 用于处理Range请求,在请求线程外导出时需显式设置
+     */
+    private HttpServletRequest request;
     private HttpServletResponse response;
     private String rootPath;
     private String subPath;
@@ -77,7 +88,13 @@ public class ExportBiz {
         if (!StringUtils.hasText(fileName)) {
             fileName = file.getName();
         }
-        responseFile(IOUtils.useInputStream(file), fileName);
+        ContentType contentType = useContentType(fileName);
+        if (waterMark != null && waterMark.isApplicable(contentType)) {
+            responseFile(IOUtils.useInputStream(file), fileName);
+            return;
+        }
+        useHeader(contentType, fileName, response);
+        WebUtils.sendFile(file, request, response);
     }
 
     public void responseFile(InputStream in, String fileName) {
@@ -210,6 +227,64 @@ public class ExportBiz {
         ExcelUtils.exportExcel(model, template, useOutputStream(fileName, "excel"));
     }
 
+    /**
+     * 流式导出Excel,不经过模板,适用于大数据量导出
+     * 
+     * @param <D>
+     * @param progress
+     * @param fetcher
+     * @param rowConsumer
+     * @param fileName
+     * @param heads
+     */
+    public <D> void exportExcel(Progress progress, Function<? super Progress.Recorder, ? extends Collection<D>> fetcher,
+            BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer, String fileName, String... heads) {
+        exportExcel(progress.useIterator(fetcher), rowConsumer, fileName, heads);
+    }
+
+    /**
+     * 流式导出Excel,不经过模板,适用于大数据量导出
+     * 
+     * @param <D>
+     * @param iterator
+     * @param rowConsumer
+     * @param fileName
+     * @param heads
+     */
+    public <D> void exportExcel(Iterator<D> iterator, BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer,
+            String fileName, String... heads) {
+        ExcelUtils.exportExcel(rowConsumer, iterator, useOutputStream(fileName, "excel"), heads);
+    }
+
+    /**
+     * 流式导出CSV,适用于大数据量导出
+     * 
+     * @param <D>
+     * @param progress
+     * @param fetcher
+     * @param rowConsumer
+     * @param fileName
+     * @param heads
+     */
+    public <D> void exportCsv(Progress progress, Function<? super Progress.Recorder, ? extends Collection<D>> fetcher,
+            BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer, String fileName, String... heads) {
+        exportCsv(progress.useIterator(fetcher), rowConsumer, fileName, heads);
+    }
+
+    /**
+     * 流式导出CSV,适用于大数据量导出
+     * 
+     * @param <D>
+     * @param iterator
+     * @param rowConsumer
+     * @param fileName
+     * @param heads
+     */
+    public <D> void exportCsv(Iterator<D> iterator, BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer,
+            String fileName, String... heads) {
+        ExcelUtils.exportCsv(rowConsumer, iterator, useOutputStream(fileName, "csv"), heads);
+    }
+
     /**
      * 导出PDF
      * 
@@ -234,6 +309,93 @@ public class ExportBiz {
         PdfUtils.transformPdf(html, useOutputStream(fileName, "pdf"), waterMark, password);
     }
 
+    /**
+     * 批量并行导出PDF到导出目录
+     * <p>
+     * 1.模型逐批拉取,渲染html和pdf在progress的线程池中进行,同时最多window个任务
+     * <p>
+     * 2.每个pdf直接写入导出目录下的文件,失败计入recorder的失败数
+     * 
+     * @param <M>
+     * @param progress
+     * @param fetcher
+     * @param fileNameFn 模型对应的文件名
+     * @param template   为空时使用默认模板
+     * @param window     最大并发任务数
+     */
+    public <M> void exportPdf(Progress progress, Function<? super Progress.Recorder, ? extends Collection<M>> fetcher,
+            Function<? super M, String> fileNameFn, String template, int window) {
+        String pdfTemplate = StringUtils.hasText(template) ? template : useTemplate(EXPORT_DEFAULT);
+        progress.pipelineBatch(fetcher, model -> {
+            String fileName = fileNameFn.apply(model);
+            String html = RenderUtils.freeMarkerRender(model, pdfTemplate);
+            OutputStream out = IOUtils.useOutputStream(useExportFile(fileName));
+            try {
+                PdfUtils.transformPdf(html, out, waterMark, password);
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            return fileName;
+        }, window, fileList::add);
+    }
+
+    /**
+     * 批量并行导出PDF并写入zip
+     * <p>
+     * 1.模型逐批拉取,渲染html和pdf在progress的线程池中进行,同时最多window个任务
+     * <p>
+     * 2.渲染完成的pdf在调用线程上依次写入zip条目,内存中最多保留window个pdf
+     * 
+     * @param <M>
+     * @param progress
+     * @param fetcher
+     * @param fileNameFn zip条目名
+     * @param template   为空时使用默认模板
+     * @param window     最大并发任务数
+     * @param zos
+     */
+    public <M> void exportPdf(Progress progress, Function<? super Progress.Recorder, ? extends Collection<M>> fetcher,
+            Function<? super M, String> fileNameFn, String template, int window, ZipOutputStream zos) {
+        String pdfTemplate = StringUtils.hasText(template) ? template : useTemplate(EXPORT_DEFAULT);
+        progress.pipelineBatch(fetcher, model -> {
+            String html = RenderUtils.freeMarkerRender(model, pdfTemplate);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PdfUtils.transformPdf(html, out, waterMark, password);
+            return Pair.of(fileNameFn.apply(model), out);
+        }, window, entry -> {
+            try {
+                zos.putNextEntry(new ZipEntry(entry.getV1()));
+                entry.getV2().writeTo(zos);
+                zos.closeEntry();
+            } catch (IOException e) {
+                throw new RuntimeException("压缩文件失败:" + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 批量并行导出PDF,打包zip流式下载
+     * 
+     * @param <M>
+     * @param progress
+     * @param fetcher
+     * @param fileNameFn zip条目名
+     * @param template   为空时使用默认模板
+     * @param window     最大并发任务数
+     * @param fileName   zip文件名
+     */
+    public <M> void downloadPdfZip(Progress progress,
+            Function<? super Progress.Recorder, ? extends Collection<M>> fetcher, Function<? super M, String> fileNameFn,
+            String template, int window, String fileName) {
+        ZipOutputStream zos = null;
+        try {
+            zos = ZipUtils.useZipOutputStream(useOutputStream(fileName, "zip", response));
+            exportPdf(progress, fetcher, fileNameFn, template, window, zos);
+        } finally {
+            IOUtils.closeQuietly(zos);
+        }
+    }
+
     /**
      * 导出word
      * 
@@ -285,14 +447,17 @@ public class ExportBiz {
      * @param fileName
      */
     public static void downloadZip(HttpServletResponse response, String fileName, Collection<ExportBiz> exportBizList) {
-        ZipOutputStream zos = null;
+        ParallelZipWriter zip = null;
         try {
-            zos = ZipUtils.useZipOutputStream(useOutputStream(fileName, "zip", response));
+            zip = ZipUtils.useParallelZipWriter(useOutputStream(fileName, "zip", response));
             for (ExportBiz exportBiz : exportBizList) {
-                exportBiz.toZip(zos, "");
+                exportBiz.toZip(zip, "");
             }
+            zip.close();
+        } catch (IOException e) {
+            throw new RuntimeException("压缩文件失败:" + e.getMessage(), e);
         } finally {
-            IOUtils.closeQuietly(zos);
+            IOUtils.closeQuietly(zip);
         }
     }
 
@@ -303,12 +468,15 @@ public class ExportBiz {
      * @param fileName
      */
     public void downloadZip(HttpServletResponse response, String fileName) {
-        ZipOutputStream zos = null;
+        ParallelZipWriter zip = null;
         try {
-            zos = ZipUtils.useZipOutputStream(useOutputStream(fileName, "zip", response));
-            toZip(zos, "");
+            zip = ZipUtils.useParallelZipWriter(useOutputStream(fileName, "zip", response));
+            toZip(zip, "");
+            zip.close();
+        } catch (IOException e) {
+            throw new RuntimeException("压缩文件失败:" + e.getMessage(), e);
         } finally {
-            IOUtils.closeQuietly(zos);
+            IOUtils.closeQuietly(zip);
         }
     }
 
@@ -323,7 +491,15 @@ public class ExportBiz {
     }
 
     public void downloadFile(HttpServletResponse response, String fileName, String downloadName) {
-        WebUtils.download(useExportFile(fileName), downloadName, response);
+        downloadFile(request, response, fileName, downloadName);
+    }
+
+    public void downloadFile(HttpServletRequest request, HttpServletResponse response, String fileName,
+            String downloadName) {
+        // 不使用sendfile,导出文件可能在请求结束前被清理
+        File file = useExportFile(fileName);
+        WebUtils.downloadHeader(StringUtils.hasText(downloadName) ? downloadName : file.getName(), response);
+        WebUtils.sendFile(file, request, response);
     }
 
     public void responseSingleFile(HttpServletResponse response) {
@@ -333,8 +509,12 @@ public class ExportBiz {
     }
 
     public void responseFile(HttpServletResponse response, String fileName) {
-        InputStream in = IOUtils.useInputStream(useExportFile(fileName));
-        responseFile(response, in, fileName);
+        responseFile(request, response, fileName);
+    }
+
+    public void responseFile(HttpServletRequest request, HttpServletResponse response, String fileName) {
+        useHeader(useContentType(fileName), fileName, response);
+        WebUtils.sendFile(useExportFile(fileName), request, response);
     }
 
     public void responseFile(HttpServletResponse response, InputStream in, String fileName) {
@@ -361,11 +541,7 @@ public class ExportBiz {
     }
 
     public static OutputStream useOutputStream(ContentType contentType, String fileName, HttpServletResponse response) {
-        if (contentType == null) {
-            WebUtils.downloadHeader(fileName, response);
-        } else {
-            response.setContentType(contentType.getMimeType());
-        }
+        useHeader(contentType, fileName, response);
         try {
             return response.getOutputStream();
         } catch (IOException e) {
@@ -374,6 +550,14 @@ public class ExportBiz {
         }
     }
 
+    private static void useHeader(ContentType contentType, String fileName, HttpServletResponse response) {
+        if (contentType == null) {
+            WebUtils.downloadHeader(fileName, response);
+        } else {
+            response.setContentType(contentType.getMimeType());
+        }
+    }
+
     public static OutputStream useOutputStream(String fileName, HttpServletResponse response) {
         return useOutputStream(fileName, "file", response);
     }
@@ -469,6 +653,27 @@ public class ExportBiz {
         }
     }
 
+    /**
+     * 并行压缩导出的文件
+     * 
+     * @param zip
+     * @param entryName
+     * @param fileNames
+     * @throws IOException
+     */
+    public void toZip(ParallelZipWriter zip, String entryName, String... fileNames) throws IOException {
+        Collection<String> names = fileNames != null && fileNames.length > 0 ? Arrays.asList(fileNames) : fileList;
+        if (CollectionUtils.isEmpty(names)) {
+            return;
+        }
+        for (String fileName : names) {
+            File file = useExportFile(fileName);
+            if (file.exists()) {
+                zip.addFile(file, entryName + fileName);
+            }
+        }
+    }
+
     /**
      * 清空导出的文件
      */
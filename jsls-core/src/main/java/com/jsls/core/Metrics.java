@@ -0,0 +1,352 @@
+package com.jsls.core;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 进程内指标,按名称登记计数器、计时器和取值器
+ * <p>
+ * 1.计数基于LongAdder,热点路径上无锁
+ * <p>
+ * 2.同名指标只会创建一次,可在任意处通过名称获取
+ * <p>
+ * 3.带标签的指标通过recorder()记录,默认将标签拼入名称如name{k=v}后记录到本类,可替换为Micrometer等实现
+ */
+public class Metrics {
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+    private static final Recorder DEFAULT_RECORDER = new DefaultRecorder();
+    private static volatile Recorder recorder = DEFAULT_RECORDER;
+
+    public static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, Counter::new);
+    }
+
+    public static Timer timer(String name) {
+        Timer timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, Timer::new);
+    }
+
+    public static Summary summary(String name) {
+        Summary summary = summaries.get(name);
+        return summary != null ? summary : summaries.computeIfAbsent(name, Summary::new);
+    }
+
+    /**
+     * 登记取值器,同名覆盖
+     *
+     * @param name
+     * @param supplier
+     */
+    public static void gauge(String name, Supplier<? extends Number> supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public static Recorder recorder() {
+        return recorder;
+    }
+
+    /**
+     * 替换带标签指标的记录器,传null恢复默认
+     *
+     * @param recorder
+     */
+    public static void setRecorder(Recorder recorder) {
+        Metrics.recorder = recorder == null ? DEFAULT_RECORDER : recorder;
+    }
+
+    /**
+     * 标签拼入名称,如 http.client.requests{host=a.com,status=200}
+     *
+     * @param name
+     * @param tags
+     * @return
+     */
+    public static String useName(String name, Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name).append('{');
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            if (sb.charAt(sb.length() - 1) != '{') {
+                sb.append(',');
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 指标快照,计时器展开为name.count/name.totalMs/name.meanMs/name.maxMs/name.p95Ms/name.p99Ms,
+     * 分布展开为name.count/name.total/name.mean/name.max/name.p95/name.p99
+     *
+     * @return
+     */
+    public static Map<String, Number> snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * 指定前缀的指标快照
+     *
+     * @param prefix
+     * @return
+     */
+    public static Map<String, Number> snapshot(String prefix) {
+        Map<String, Number> snapshot = new TreeMap<>();
+        for (Counter counter : counters.values()) {
+            if (prefix == null || counter.name.startsWith(prefix)) {
+                snapshot.put(counter.name, counter.getCount());
+            }
+        }
+        for (Timer timer : timers.values()) {
+            if (prefix == null || timer.name.startsWith(prefix)) {
+                snapshot.put(timer.name + ".count", timer.getCount());
+                snapshot.put(timer.name + ".totalMs", timer.getTotalTime(TimeUnit.MILLISECONDS));
+                snapshot.put(timer.name + ".meanMs", timer.getMean(TimeUnit.MILLISECONDS));
+                snapshot.put(timer.name + ".maxMs", timer.getMax(TimeUnit.MILLISECONDS));
+                snapshot.put(timer.name + ".p95Ms", timer.getPercentile(0.95, TimeUnit.MILLISECONDS));
+                snapshot.put(timer.name + ".p99Ms", timer.getPercentile(0.99, TimeUnit.MILLISECONDS));
+            }
+        }
+        for (Summary summary : summaries.values()) {
+            if (prefix == null || summary.name.startsWith(prefix)) {
+                snapshot.put(summary.name + ".count", summary.getCount());
+                snapshot.put(summary.name + ".total", summary.getTotal());
+                snapshot.put(summary.name + ".mean", summary.getMean());
+                snapshot.put(summary.name + ".max", summary.getMax());
+                snapshot.put(summary.name + ".p95", summary.getPercentile(0.95));
+                snapshot.put(summary.name + ".p99", summary.getPercentile(0.99));
+            }
+        }
+        for (Map.Entry<String, Supplier<? extends Number>> entry : gauges.entrySet()) {
+            if (prefix == null || entry.getKey().startsWith(prefix)) {
+                snapshot.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        return snapshot;
+    }
+
+    public static class Counter {
+        private final String name;
+        private final LongAdder adder = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void increment() {
+            adder.increment();
+        }
+
+        public void add(long n) {
+            adder.add(n);
+        }
+
+        public long getCount() {
+            return adder.sum();
+        }
+    }
+
+    public static class Timer {
+        private final String name;
+        private final Summary nanos;
+
+        private Timer(String name) {
+            this.name = name;
+            this.nanos = new Summary(name);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void record(long nanos) {
+            this.nanos.record(nanos);
+        }
+
+        /**
+         * 记录自startNanos(System.nanoTime)至今的耗时
+         *
+         * @param startNanos
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public <T> T record(Supplier<T> supplier) {
+            long start = System.nanoTime();
+            try {
+                return supplier.get();
+            } finally {
+                recordSince(start);
+            }
+        }
+
+        public long getCount() {
+            return nanos.getCount();
+        }
+
+        public double getTotalTime(TimeUnit unit) {
+            return (double) nanos.getTotal() / unit.toNanos(1);
+        }
+
+        public double getMean(TimeUnit unit) {
+            return nanos.getMean() / unit.toNanos(1);
+        }
+
+        public double getMax(TimeUnit unit) {
+            return (double) nanos.getMax() / unit.toNanos(1);
+        }
+
+        public double getPercentile(double percentile, TimeUnit unit) {
+            return (double) nanos.getPercentile(percentile) / unit.toNanos(1);
+        }
+    }
+
+    /**
+     * 数值分布,如响应大小
+     * <p>
+     * 按2的幂分段,每段再四等分计数,百分位取所在桶的上界,相对误差不超过25%
+     */
+    public static class Summary {
+        private static final int BUCKETS = 252;
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Summary(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+            buckets.incrementAndGet(indexOf(value));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotal() {
+            return total.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * 近似百分位
+         *
+         * @param percentile 0到1之间,如0.99
+         * @return
+         */
+        public long getPercentile(double percentile) {
+            long n = 0;
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperOf(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int indexOf(long value) {
+            if (value < 4) {
+                return (int) value;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exp - 2)) & 3;
+            return (exp - 1) * 4 + sub;
+        }
+
+        private static long upperOf(int index) {
+            if (index < 4) {
+                return index;
+            }
+            int exp = index / 4 + 1;
+            long lower = (long) (4 + index % 4) << (exp - 2);
+            return lower + (1L << (exp - 2)) - 1;
+        }
+    }
+
+    /**
+     * 带标签指标的记录器,方法与Micrometer的Counter/Timer/DistributionSummary/Gauge对应,
+     * 接入时按名称和标签注册到MeterRegistry后记录即可
+     */
+    public interface Recorder {
+        void increment(String name, Map<String, String> tags, long amount);
+
+        void recordTime(String name, Map<String, String> tags, long nanos);
+
+        void recordValue(String name, Map<String, String> tags, long value);
+
+        void gauge(String name, Map<String, String> tags, Supplier<? extends Number> supplier);
+    }
+
+    /**
+     * 标签拼入名称后记录到本类
+     */
+    private static class DefaultRecorder implements Recorder {
+        @Override
+        public void increment(String name, Map<String, String> tags, long amount) {
+            counter(useName(name, tags)).add(amount);
+        }
+
+        @Override
+        public void recordTime(String name, Map<String, String> tags, long nanos) {
+            timer(useName(name, tags)).record(nanos);
+        }
+
+        @Override
+        public void recordValue(String name, Map<String, String> tags, long value) {
+            summary(useName(name, tags)).record(value);
+        }
+
+        @Override
+        public void gauge(String name, Map<String, String> tags, Supplier<? extends Number> supplier) {
+            Metrics.gauge(useName(name, tags), supplier);
+        }
+    }
+}
@@ -3,7 +3,17 @@ package com.jsls.core;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 import com.jsls.util.SpringContextHolder;
@@ -12,18 +22,45 @@ import org.springframework.util.CollectionUtils;
 
 public class Parallel {
     private static final AsyncTaskExecutor taskExecutor =SpringContextHolder.getBean(AsyncTaskExecutor.class);
+    private static final ScheduledThreadPoolExecutor timer=newTimer();
     public static void exec(Runnable task){
         taskExecutor.execute(task);
     }
     public static  Spliter newSpliter(){
-        return new Spliter(null);
+        return new Spliter(null,null);
+    }
+    /**
+     * fork/join模式的Spliter,使用Parallel自有的ForkJoinPool
+     * <p>
+     * 报表计算会阻塞在数据库和io上,不使用ForkJoinPool.commonPool(),避免拖慢并行流等公共池的使用者
+     * @return
+     */
+    public static  Spliter newForkJoinSpliter(){
+        return newForkJoinSpliter(ForkJoinHolder.POOL);
+    }
+    /**
+     * fork/join模式的Spliter
+     * <p>
+     * 父任务在waitComplete中等待时会帮助执行子任务(work-stealing),递归拆分不会因线程耗尽而阻塞
+     * @param pool
+     * @return
+     */
+    public static  Spliter newForkJoinSpliter(ForkJoinPool pool){
+        return new Spliter(null,pool);
     }
     public  static class Spliter implements Hierarchical<Spliter>{
         private final Spliter parent;
+        private final ForkJoinPool pool;
         private final List<Future<?>> futureList=new ArrayList<>();
+        /**
+         * 执行中的异步任务,完成后移除
+         */
+        private final List<CompletableFuture<?>> promiseList=new ArrayList<>();
         private final List<Spliter> subSpliters=new ArrayList<>();
-        private Spliter(Spliter parent){
+        private volatile boolean cancelled;
+        private Spliter(Spliter parent,ForkJoinPool pool){
             this.parent=parent;
+            this.pool=pool;
         }
         @Override
         public Spliter getParent() {
@@ -31,17 +68,31 @@ public class Parallel {
         }
         
         public Spliter sub(){
-            Spliter sub=new Spliter(this);
+            Spliter sub=new Spliter(this,pool);
             synchronized(subSpliters){
                 subSpliters.add(sub);
             }
+            if(cancelled){
+                sub.cancel();
+            }
             return sub;
         }
         public synchronized <V> Future<V> call(Callable<V> task){
-            Future<V> temp=taskExecutor.submit(task);
+            if(cancelled){
+                throw new CancellationException("任务已取消");
+            }
+            Future<V> temp=pool==null?taskExecutor.submit(task):fork(task);
             futureList.add(temp);
             return temp;
         }
+        private <V> ForkJoinTask<V> fork(Callable<V> task){
+            ForkJoinTask<V> temp=ForkJoinTask.adapt(task);
+            Thread thread=Thread.currentThread();
+            if(thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread)thread).getPool()==pool){
+                return temp.fork();
+            }
+            return pool.submit(temp);
+        }
         public <V> Future<Void> call(Callable<V> task,Consumer<V> consumer){
             Spliter mutex=this;
             return call(()->{
@@ -60,13 +111,128 @@ public class Parallel {
                 return Parallel.getRsultList(curr);
             },consumer);
         }
+        /**
+         * 异步执行任务,返回可组合的CompletableFuture
+         * <p>
+         * 结果回调(thenAccept等)在任务完成时执行,不占用线程等待
+         * @param <V>
+         * @param task
+         * @return
+         */
+        public synchronized <V> CompletableFuture<V> async(Callable<V> task){
+            CompletableFuture<V> promise=new CompletableFuture<>();
+            if(cancelled){
+                promise.cancel(false);
+                return promise;
+            }
+            // 不计入futureList,由promiseList跟踪到完成为止,取消经由promise传递
+            Callable<Void> callable=()->{
+                if(!promise.isDone()){
+                    try{
+                        promise.complete(task.call());
+                    }catch(Throwable e){
+                        promise.completeExceptionally(e);
+                    }
+                }
+                return null;
+            };
+            Future<Void> temp=pool==null?taskExecutor.submit(callable):fork(callable);
+            promise.whenComplete((v,e)->{
+                if(e instanceof CancellationException||e instanceof TimeoutException){
+                    temp.cancel(true);
+                }
+            });
+            promiseList.add(promise);
+            promise.whenComplete((v,e)->{
+                synchronized(this){
+                    promiseList.remove(promise);
+                }
+            });
+            return promise;
+        }
+        /**
+         * 异步执行任务,超时后以TimeoutException结束并取消任务
+         * @param <V>
+         * @param task
+         * @param timeout
+         * @param unit
+         * @return
+         */
+        public <V> CompletableFuture<V> async(Callable<V> task,long timeout,TimeUnit unit){
+            return Parallel.orTimeout(async(task),timeout,unit);
+        }
+        /**
+         * 当前及子Spliter执行中的异步任务全部完成后得到当前Spliter这些任务的结果列表,不阻塞调用线程
+         * <p>
+         * 调用时已完成的任务不在结果列表中,其结果通过async返回的future获取
+         * @return
+         */
+        public CompletableFuture<List<Object>> allOf(){
+            List<CompletableFuture<?>> curr;
+            synchronized(this){
+                curr=new ArrayList<>(promiseList);
+            }
+            List<CompletableFuture<List<Object>>> subs=new ArrayList<>();
+            synchronized(subSpliters){
+                for(Spliter sub:subSpliters){
+                    subs.add(sub.allOf());
+                }
+            }
+            return CompletableFuture.allOf(subs.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(v->Parallel.allOf(curr));
+        }
+        /**
+         * 当前Spliter执行中的任一异步任务完成即得到其结果,没有执行中的异步任务时结果为null
+         * @return
+         */
+        public synchronized CompletableFuture<Object> anyOf(){
+            return Parallel.anyOf(new ArrayList<>(promiseList));
+        }
+        /**
+         * 取消当前及子Spliter的所有任务,取消后不能再提交任务
+         */
+        public void cancel(){
+            cancelled=true;
+            synchronized(this){
+                // 取消会同步触发从promiseList移除,遍历副本
+                for(CompletableFuture<?> promise:new ArrayList<>(promiseList)){
+                    promise.cancel(true);
+                }
+                for(Future<?> future:futureList){
+                    future.cancel(true);
+                }
+            }
+            synchronized(subSpliters){
+                for(Spliter sub:subSpliters){
+                    sub.cancel();
+                }
+            }
+        }
+        public boolean isCancelled(){
+            return cancelled;
+        }
         public synchronized List<Object> getRsultList(){
             List<Object> temp=Parallel.getRsultList(futureList);
             futureList.clear();
             return temp;
         }
+        /**
+         * 等待当前及子Spliter的任务(包括执行中的异步任务)完成
+         * @return 当前Spliter是否有call提交的任务
+         */
         public boolean waitComplete(){
             int size=getRsultList().size();
+            List<CompletableFuture<?>> running;
+            synchronized(this){
+                running=new ArrayList<>(promiseList);
+            }
+            for(CompletableFuture<?> promise:running){
+                try{
+                    promise.join();
+                }catch(CancellationException|CompletionException e){
+                    // 异步任务的异常由其future的使用者处理
+                }
+            }
             synchronized(subSpliters){
                 if(!CollectionUtils.isEmpty(subSpliters)){
                     for(Spliter sub:subSpliters){
@@ -77,6 +243,68 @@ public class Parallel {
             return size>0;
         }
     }
+    /**
+     * 全部完成后按顺序得到结果列表,任一失败则结果失败
+     * @param <V>
+     * @param futures
+     * @return
+     */
+    public static <V> CompletableFuture<List<V>> allOf(List<? extends CompletableFuture<? extends V>> futures){
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v->{
+            List<V> rl=new ArrayList<>(futures.size());
+            for(CompletableFuture<? extends V> item:futures){
+                rl.add(item.join());
+            }
+            return rl;
+        });
+    }
+    /**
+     * 任一完成即得到其结果,futures为空时结果为null
+     * @param <V>
+     * @param futures
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> CompletableFuture<V> anyOf(List<? extends CompletableFuture<? extends V>> futures){
+        if(futures.isEmpty()){
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.anyOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v->(V)v);
+    }
+    /**
+     * 超时后以TimeoutException结束
+     * @param <V>
+     * @param future
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public static <V> CompletableFuture<V> orTimeout(CompletableFuture<V> future,long timeout,TimeUnit unit){
+        if(!future.isDone()){
+            ScheduledFuture<?> temp=timer.schedule(()->{
+                future.completeExceptionally(new TimeoutException("子任务超时"));
+            },timeout,unit);
+            future.whenComplete((v,e)->temp.cancel(false));
+        }
+        return future;
+    }
+    private static class ForkJoinHolder{
+        private static final ForkJoinPool POOL=new ForkJoinPool(Runtime.getRuntime().availableProcessors()*2,pool->{
+            ForkJoinWorkerThread thread=ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("parallel-fj-"+thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        },null,false);
+    }
+    private static ScheduledThreadPoolExecutor newTimer(){
+        ScheduledThreadPoolExecutor temp=new ScheduledThreadPoolExecutor(1,r->{
+            Thread thread=new Thread(r,"parallel-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        temp.setRemoveOnCancelPolicy(true);
+        return temp;
+    }
     public static List<Object> getRsultList(List<Future<?>> futureList){
         List<Object>  rl=new ArrayList<>();
         for(Future<?> item:futureList){
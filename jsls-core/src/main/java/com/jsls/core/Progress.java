@@ -1,14 +1,29 @@
 package com.jsls.core;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -297,6 +312,60 @@ public class Progress {
         recorder.doFinish();
     }
 
+    /**
+     * 流水线批处理:消费当前批次的同时在taskExecutor上预取后续批次
+     * 
+     * @param <T>
+     * @param supplier
+     * @param batchConsumer
+     * @param prefetch      预取深度,小于1时按串行处理
+     */
+    public <T> void processBatch(Supplier<? extends Collection<T>> supplier,
+            Consumer<? super Collection<T>> batchConsumer, int prefetch) {
+        processBatch(r -> supplier.get(), batchConsumer, prefetch);
+    }
+
+    /**
+     * 流水线批处理:消费当前批次的同时在taskExecutor上预取后续批次
+     * <p>
+     * 1.最多预取prefetch个批次,内存占用受预取深度限制
+     * <p>
+     * 2.fetcher收到的是recorder的副本,其batchNumber为正在获取的批次号;recorder.batchNumber为正在消费的批次号
+     * <p>
+     * 3.taskExecutor拒绝任务或在调用线程上执行任务时按串行处理
+     * 
+     * @param <T>
+     * @param fetcher
+     * @param batchConsumer
+     * @param prefetch      预取深度,小于1时按串行处理
+     */
+    public <T> void processBatch(Function<? super Recorder, ? extends Collection<T>> fetcher,
+            Consumer<? super Collection<T>> batchConsumer, int prefetch) {
+        if (prefetch < 1) {
+            processBatch(fetcher, batchConsumer);
+            return;
+        }
+        int batchNumber = recorder.getBatchNumber();
+        Prefetcher<T> prefetcher = new Prefetcher<>(fetcher, batchNumber, prefetch);
+        if (!prefetcher.start()) {
+            processBatch(fetcher, batchConsumer);
+            return;
+        }
+        recorder.doStart();
+        try {
+            for (;;) {
+                Collection<T> batch = prefetcher.take();
+                recorder.batchNumber = batchNumber++;
+                if (!execBatch(batch, batchConsumer)) {
+                    break;
+                }
+            }
+        } finally {
+            prefetcher.stop();
+        }
+        recorder.doFinish();
+    }
+
     public <T> void processBatch(Collection<T> data, Consumer<? super Collection<T>> batchConsumer) {
         int batchNumber = recorder.getBatchNumber();
         recorder.setTotal(data.size());
@@ -338,6 +407,114 @@ public class Progress {
         return true;
     }
 
+    /**
+     * 批次预取器,在独立任务中按顺序获取批次并放入有界队列
+     * 
+     * @param <T>
+     */
+    private class Prefetcher<T> implements Runnable {
+        private final Object end = new Object();
+        private final Function<? super Recorder, ? extends Collection<T>> fetcher;
+        private final Recorder cursor;
+        private final BlockingQueue<Object> queue;
+        private volatile boolean stopped;
+        private volatile Throwable error;
+        private volatile Thread owner;
+        private volatile boolean inline;
+
+        private Prefetcher(Function<? super Recorder, ? extends Collection<T>> fetcher, int batchNumber,
+                int prefetch) {
+            this.fetcher = fetcher;
+            this.cursor = recorder.copy();
+            this.cursor.stage = recorder.stage;
+            this.cursor.batchNumber = batchNumber;
+            this.queue = new ArrayBlockingQueue<>(prefetch);
+        }
+
+        /**
+         * 提交到taskExecutor,被拒绝或在调用线程上执行时返回false
+         * 
+         * @return
+         */
+        private boolean start() {
+            owner = Thread.currentThread();
+            try {
+                taskExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+            return !inline;
+        }
+
+        @Override
+        public void run() {
+            if (Thread.currentThread() == owner) {
+                // 同步执行器或CallerRunsPolicy,没有消费者,不能在此预取
+                inline = true;
+                return;
+            }
+            try {
+                while (!stopped) {
+                    Collection<T> batch = fetcher.apply(cursor);
+                    cursor.batchNumber++;
+                    if (CollectionUtils.isEmpty(batch)) {
+                        break;
+                    }
+                    put(batch);
+                    if (batch.size() < cursor.batchSize) {
+                        break;
+                    }
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                try {
+                    put(end);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void put(Object item) throws InterruptedException {
+            while (!stopped && !queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            }
+        }
+
+        /**
+         * 取下一个批次,没有更多批次时返回null
+         * 
+         * @return
+         */
+        @SuppressWarnings("unchecked")
+        private Collection<T> take() {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(recorder.useTaskName() + "预取中断", e);
+            }
+            if (item != end) {
+                return (Collection<T>) item;
+            }
+            Throwable e = error;
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                throw new RuntimeException(recorder.useTaskName() + "预取异常:" + e.getMessage(), e);
+            }
+            return null;
+        }
+
+        private void stop() {
+            stopped = true;
+            queue.clear();
+        }
+    }
+
     /**
      * 调用批处理
      * 
@@ -394,6 +571,32 @@ public class Progress {
         return resultList;
     }
 
+    /**
+     * 窗口化调用批处理:同时最多window个任务在执行,每完成一个任务即更新进度
+     * <p>
+     * 失败的任务结果为null
+     * 
+     * @param <T>
+     * @param <R>
+     * @param batch
+     * @param fn
+     * @param window  最大并发任务数
+     * @param ordered true 结果按输入顺序 false 结果按完成顺序
+     * @return
+     */
+    public <T, R> List<R> callBatch(Collection<T> batch, Function<T, R> fn, int window, boolean ordered) {
+        List<R> resultList = new ArrayList<>(batch.size());
+        if (ordered) {
+            for (int i = 0; i < batch.size(); i++) {
+                resultList.add(null);
+            }
+            windowBatch(batch.iterator(), fn, window, resultList::set);
+        } else {
+            windowBatch(batch.iterator(), fn, window, (index, r) -> resultList.add(r));
+        }
+        return resultList;
+    }
+
     /**
      * 调用批处理
      * 
@@ -411,7 +614,7 @@ public class Progress {
         int failCount = 0;
         List<Future<R>> list = new ArrayList<>();
         for (T item : batch) {
-            list.add(taskExecutor.submit(() -> fn.wrapper(item)));
+            list.add(fn.submit(item, taskExecutor));
         }
         List<R> resultList = new ArrayList<>();
         for (Future<R> future : list) {
@@ -491,6 +694,132 @@ public class Progress {
         }
     }
 
+    /**
+     * 窗口化执行批处理:同时最多window个任务在执行,每完成一个任务即更新进度
+     * 
+     * @param <T>
+     * @param batch
+     * @param consumer
+     * @param window   最大并发任务数
+     */
+    public <T> void executeBatch(Collection<T> batch, Consumer<T> consumer, int window) {
+        windowBatch(batch.iterator(), item -> {
+            consumer.accept(item);
+            return null;
+        }, window, null);
+    }
+
+    /**
+     * 流水线批处理:逐批拉取数据,同时最多window个任务在执行,每完成一个任务即更新进度
+     * <p>
+     * 1.只有窗口有空位时才继续拉取数据,内存占用与数据总量无关,拉取到空批次或不足batchSize的批次后不再拉取
+     * <p>
+     * 2.结果在调用线程上按完成顺序交给resultConsumer,结果为null(含失败)时不回调
+     * <p>
+     * 3.resultConsumer抛出异常时取消执行中的任务并中止处理
+     * 
+     * @param <T>
+     * @param <R>
+     * @param fetcher
+     * @param fn
+     * @param window         最大并发任务数
+     * @param resultConsumer
+     */
+    public <T, R> void pipelineBatch(Function<? super Recorder, ? extends Collection<T>> fetcher, Function<T, R> fn,
+            int window, Consumer<? super R> resultConsumer) {
+        recorder.doStart();
+        Iterator<T> iterator = new Iterator<T>() {
+            Iterator<T> internal;
+            int batchNumber = recorder.getBatchNumber();
+            // 数据已取完,不再调用fetcher
+            boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                while (internal == null || !internal.hasNext()) {
+                    if (exhausted) {
+                        return false;
+                    }
+                    recorder.batchNumber = batchNumber++;
+                    Collection<T> batch = fetcher.apply(recorder);
+                    if (CollectionUtils.isEmpty(batch)) {
+                        exhausted = true;
+                        return false;
+                    }
+                    if (batch.size() < recorder.getBatchSize()) {
+                        exhausted = true;
+                    }
+                    internal = batch.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                return internal.next();
+            }
+        };
+        windowBatch(iterator, fn, window, (index, r) -> {
+            if (r != null) {
+                resultConsumer.accept(r);
+            }
+        });
+        recorder.doFinish();
+    }
+
+    private <T, R> void windowBatch(Iterator<T> iterator, Function<T, R> fn, int window,
+            BiConsumer<Integer, R> resultConsumer) {
+        final int batchSize = recorder.getBatchSize();
+        final int limit = Math.max(window, 1);
+        CompletionService<R> completionService = new ExecutorCompletionService<>(taskExecutor);
+        Map<Future<R>, Integer> running = new IdentityHashMap<>();
+        int index = 0;
+        int batchCount = 0;
+        while (iterator.hasNext() || !running.isEmpty()) {
+            while (running.size() < limit && iterator.hasNext()) {
+                T item = iterator.next();
+                running.put(completionService.submit(() -> fn.apply(item)), index++);
+            }
+            Future<R> future;
+            try {
+                future = completionService.take();
+            } catch (InterruptedException e) {
+                for (Future<R> f : running.keySet()) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(recorder.useTaskName() + "中断", e);
+            }
+            Integer i = running.remove(future);
+            R r = null;
+            int failCount = 0;
+            try {
+                r = future.get();
+            } catch (Exception e) {
+                failCount = 1;
+                recorder.log(e);
+            }
+            if (resultConsumer != null) {
+                try {
+                    resultConsumer.accept(i, r);
+                } catch (RuntimeException e) {
+                    for (Future<R> f : running.keySet()) {
+                        f.cancel(true);
+                    }
+                    throw e;
+                }
+            }
+            recorder.applyBatch(1, failCount);
+            batchCount++;
+            if (batchCount % batchSize == 0) {
+                recorder.doProgress();
+            }
+        }
+        if (batchCount % batchSize != 0) {
+            recorder.doProgress();
+        }
+    }
+
     /**
      * 执行批处理
      * 
@@ -506,7 +835,7 @@ public class Progress {
         int failCount = 0;
         List<Future<Boolean>> list = new ArrayList<>();
         for (T item : batch) {
-            list.add(taskExecutor.submit(() -> consumer.wrapper(item)));
+            list.add(consumer.submit(item, taskExecutor));
         }
         for (Future<Boolean> future : list) {
             try {
@@ -576,7 +905,16 @@ public class Progress {
         }
 
         public long getSuccessCount() {
-            return count - failCount - skipCount;
+            return snapshot().getSuccessCount();
+        }
+
+        /**
+         * 当前计数快照,日志输出时使用以保证各计数一致
+         * 
+         * @return
+         */
+        public Snapshot snapshot() {
+            return new Snapshot(total, count, failCount, skipCount);
         }
 
         public void reset() {
@@ -612,43 +950,57 @@ public class Progress {
         }
 
         public void doProgress() {
-            if (total > 0) {
-                doProgress(total);
+            Snapshot snapshot = snapshot();
+            if (snapshot.total > 0) {
+                doProgress(snapshot, snapshot.total);
                 return;
             }
-            if (skipCount > 0) {
-                log("{} 已执行:{},失败:{},忽略:{}", useTaskName(), count, failCount, skipCount);
+            if (snapshot.skipCount > 0) {
+                log("{} 已执行:{},失败:{},忽略:{}", useTaskName(), snapshot.count, snapshot.failCount,
+                        snapshot.skipCount);
                 return;
             }
-            log("{} 已执行:{},失败:{}", useTaskName(), count, failCount);
+            log("{} 已执行:{},失败:{}", useTaskName(), snapshot.count, snapshot.failCount);
         }
 
         public void doProgress(long total) {
-            if (skipCount > 0) {
-                log("{} 总数量:{},已执行:{},失败:{},忽略:{}", useTaskName(), total, count, failCount, skipCount);
+            doProgress(snapshot(), total);
+        }
+
+        private void doProgress(Snapshot snapshot, long total) {
+            if (snapshot.skipCount > 0) {
+                log("{} 总数量:{},已执行:{},失败:{},忽略:{}", useTaskName(), total, snapshot.count, snapshot.failCount,
+                        snapshot.skipCount);
                 return;
             }
-            log("{} 总数量:{},已执行:{},失败:{}", useTaskName(), total, count, failCount);
+            log("{} 总数量:{},已执行:{},失败:{}", useTaskName(), total, snapshot.count, snapshot.failCount);
         }
 
         public void doProgress(String step) {
-            if (total > 0) {
-                doProgress(total, step);
+            Snapshot snapshot = snapshot();
+            if (snapshot.total > 0) {
+                doProgress(snapshot, snapshot.total, step);
                 return;
             }
-            if (skipCount > 0) {
-                log("{} {} 已执行:{},失败:{},忽略:{}", useTaskName(), step, count, failCount, skipCount);
+            if (snapshot.skipCount > 0) {
+                log("{} {} 已执行:{},失败:{},忽略:{}", useTaskName(), step, snapshot.count, snapshot.failCount,
+                        snapshot.skipCount);
                 return;
             }
-            log("{} {} 已执行:{},失败:{}", useTaskName(), step, count, failCount);
+            log("{} {} 已执行:{},失败:{}", useTaskName(), step, snapshot.count, snapshot.failCount);
         }
 
         public void doProgress(long total, String step) {
-            if (skipCount > 0) {
-                log("{} {} 总数量:{},已执行:{},失败:{},忽略:{}", useTaskName(), step, total, count, failCount, skipCount);
+            doProgress(snapshot(), total, step);
+        }
+
+        private void doProgress(Snapshot snapshot, long total, String step) {
+            if (snapshot.skipCount > 0) {
+                log("{} {} 总数量:{},已执行:{},失败:{},忽略:{}", useTaskName(), step, total, snapshot.count,
+                        snapshot.failCount, snapshot.skipCount);
                 return;
             }
-            log("{} {} 总数量:{},已执行:{},失败:{}", useTaskName(), step, total, count, failCount);
+            log("{} {} 总数量:{},已执行:{},失败:{}", useTaskName(), step, total, snapshot.count, snapshot.failCount);
         }
 
         public void doBatchStep(String step, int batchCount, int batchFailCount, int batchSkipCount) {
@@ -656,8 +1008,9 @@ public class Progress {
                 doBatchStep(total, step, batchCount, batchFailCount, batchSkipCount);
                 return;
             }
-            log("{} {} 执行:{}-{},失败:{},忽略:{}", useTaskName(), step, this.count + 1,
-                    this.count + batchCount, batchFailCount, batchSkipCount);
+            long count = getCount();
+            log("{} {} 执行:{}-{},失败:{},忽略:{}", useTaskName(), step, count + 1,
+                    count + batchCount, batchFailCount, batchSkipCount);
         }
 
         public void doBatchStep(String step, int batchCount, int batchFailCount) {
@@ -665,17 +1018,20 @@ public class Progress {
                 doBatchStep(total, step, batchCount, batchFailCount);
                 return;
             }
-            log("{} {} 执行:{}-{},失败:{}", useTaskName(), step, this.count + 1, this.count + batchCount, batchFailCount);
+            long count = getCount();
+            log("{} {} 执行:{}-{},失败:{}", useTaskName(), step, count + 1, count + batchCount, batchFailCount);
         }
 
         public void doBatchStep(long total, String step, int batchCount, int batchFailCount, int batchSkipCount) {
+            long count = getCount();
             log("{} {} 总数量:{},执行:{}-{},失败:{},忽略:{}", useTaskName(), step, total,
-                    this.count + 1, this.count + batchCount, batchFailCount, batchSkipCount);
+                    count + 1, count + batchCount, batchFailCount, batchSkipCount);
         }
 
         public void doBatchStep(long total, String step, int batchCount, int batchFailCount) {
+            long count = getCount();
             log("{} {} 总数量:{},执行:{}-{},失败:{}", useTaskName(), step, total,
-                    this.count + 1, this.count + batchCount, batchFailCount);
+                    count + 1, count + batchCount, batchFailCount);
         }
 
         public void log(String format, Object... arguments) {
@@ -687,6 +1043,94 @@ public class Progress {
         }
     }
 
+    /**
+     * 计数快照
+     */
+    @Getter
+    public static class Snapshot {
+        private final long total;
+        private final long count;
+        private final long failCount;
+        private final long skipCount;
+
+        public Snapshot(long total, long count, long failCount, long skipCount) {
+            this.total = total;
+            this.count = count;
+            this.failCount = failCount;
+            this.skipCount = skipCount;
+        }
+
+        public long getSuccessCount() {
+            return count - failCount - skipCount;
+        }
+    }
+
+    /**
+     * 线程安全的计数器,多个线程同时调用applyBatch时使用
+     * <p>
+     * 计数基于LongAdder,无锁且高并发下开销小
+     */
+    public static class ConcurrentRecorder extends Recorder {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failCount = new LongAdder();
+        private final LongAdder skipCount = new LongAdder();
+
+        public ConcurrentRecorder(String taskName, int batchSize) {
+            super(taskName, batchSize);
+        }
+
+        @Override
+        public Recorder copy() {
+            return new ConcurrentRecorder(getTaskName(), getBatchSize());
+        }
+
+        @Override
+        public void applyBatch(int batchCount, int failCount) {
+            this.count.add(batchCount);
+            this.failCount.add(failCount);
+        }
+
+        @Override
+        public void applyBatch(int batchCount, int failCount, int skipCount) {
+            this.count.add(batchCount);
+            this.failCount.add(failCount);
+            this.skipCount.add(skipCount);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getFailCount() {
+            return failCount.sum();
+        }
+
+        @Override
+        public long getSkipCount() {
+            return skipCount.sum();
+        }
+
+        /**
+         * 先读失败和忽略数再读执行数,applyBatch先加执行数,保证成功数不为负
+         */
+        @Override
+        public Snapshot snapshot() {
+            long skip = skipCount.sum();
+            long fail = failCount.sum();
+            return new Snapshot(getTotal(), count.sum(), fail, skip);
+        }
+
+        @Override
+        public void reset(String stage) {
+            super.reset(stage);
+            this.count.reset();
+            this.failCount.reset();
+            this.skipCount.reset();
+        }
+    }
+
     public static class DefaultFunctionStrategy<T extends Parallelizable, R>
             implements Parallelizable.ParallelStrategy<T, R> {
         private final Function<T, R> fn;
@@ -794,6 +1238,124 @@ public class Progress {
         }
     }
 
+    /**
+     * 按key串行的调度策略
+     * <p>
+     * 1.每个key一个FIFO队列,相同key的任务排在正在执行的任务后面,不阻塞线程
+     * <p>
+     * 2.不同key的任务完全并行
+     * 
+     * @param <T>
+     * @param <R>
+     */
+    public static class KeyedSerialStrategy<T extends Parallelizable, R>
+            implements Parallelizable.ParallelStrategy<T, R> {
+        private final Function<T, R> fn;
+        private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+        private final boolean skipWhenMutex;
+        private final R skipResult;
+
+        private KeyedSerialStrategy(Function<T, R> fn, boolean skipWhenMutex, R skipResult) {
+            this.fn = fn;
+            this.skipWhenMutex = skipWhenMutex;
+            this.skipResult = skipResult;
+        }
+
+        public R wrapper(T item) {
+            try {
+                return submit(item, Runnable::run).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e.getMessage(), e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause.getMessage(), cause);
+            }
+        }
+
+        @Override
+        public Future<R> submit(T item, AsyncTaskExecutor taskExecutor) {
+            return submit(item, (Executor) taskExecutor);
+        }
+
+        private Future<R> submit(T item, Executor executor) {
+            String key = item.useKey();
+            CompletableFuture<R> future = new CompletableFuture<>();
+            Runnable task = () -> {
+                try {
+                    R r = fn.apply(item);
+                    item.complete(r);
+                    future.complete(r);
+                } catch (Throwable e) {
+                    item.complete(e);
+                    future.completeExceptionally(e);
+                }
+            };
+            boolean[] created = new boolean[1];
+            Lane lane = lanes.compute(key, (k, curr) -> {
+                if (curr == null) {
+                    curr = new Lane(k);
+                    created[0] = true;
+                } else if (skipWhenMutex) {
+                    return curr;
+                }
+                curr.tasks.add(task);
+                return curr;
+            });
+            if (created[0]) {
+                try {
+                    executor.execute(lane);
+                } catch (RejectedExecutionException e) {
+                    lane.run();
+                }
+            } else if (skipWhenMutex) {
+                item.complete(null);
+                future.complete(skipResult);
+            }
+            return future;
+        }
+
+        public void onBatchEnd() {
+            lanes.clear();
+        }
+
+        /**
+         * 单个key的任务队列,队列只在lanes.compute内访问
+         */
+        private class Lane implements Runnable {
+            private final String key;
+            private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+            private Lane(String key) {
+                this.key = key;
+            }
+
+            @Override
+            public void run() {
+                for (Runnable task = poll(); task != null; task = poll()) {
+                    task.run();
+                }
+            }
+
+            private Runnable poll() {
+                Runnable[] next = new Runnable[1];
+                lanes.computeIfPresent(key, (k, curr) -> {
+                    if (curr != this) {
+                        return curr;
+                    }
+                    next[0] = tasks.poll();
+                    return next[0] == null ? null : curr;
+                });
+                return next[0];
+            }
+        }
+    }
+
     public static abstract class Parallelizable {
 
         public static interface ParallelStrategy<T extends Parallelizable, R> {
@@ -801,6 +1363,17 @@ public class Progress {
 
             void onBatchEnd();
 
+            /**
+             * 提交任务到线程池
+             * 
+             * @param item
+             * @param taskExecutor
+             * @return
+             */
+            default Future<R> submit(T item, AsyncTaskExecutor taskExecutor) {
+                return taskExecutor.submit(() -> wrapper(item));
+            }
+
             public static <T extends Parallelizable> ParallelStrategy<T, Boolean> of(Consumer<T> consumer,
                     boolean skipWhenMutex) {
                 return new DefaultConsumerStrategy<>(consumer, skipWhenMutex);
@@ -810,6 +1383,36 @@ public class Progress {
                     boolean skipWhenMutex) {
                 return new DefaultFunctionStrategy<T, R>(fn, skipWhenMutex);
             }
+
+            /**
+             * 按key串行的策略,相同key的任务排队执行而不占用线程等待
+             * 
+             * @param <T>
+             * @param consumer
+             * @param skipWhenMutex
+             * @return
+             */
+            public static <T extends Parallelizable> ParallelStrategy<T, Boolean> ofKeyed(Consumer<T> consumer,
+                    boolean skipWhenMutex) {
+                return new KeyedSerialStrategy<T, Boolean>(item -> {
+                    consumer.accept(item);
+                    return true;
+                }, skipWhenMutex, true);
+            }
+
+            /**
+             * 按key串行的策略,相同key的任务排队执行而不占用线程等待
+             * 
+             * @param <T>
+             * @param <R>
+             * @param fn
+             * @param skipWhenMutex
+             * @return
+             */
+            public static <T extends Parallelizable, R> ParallelStrategy<T, R> ofKeyed(Function<T, R> fn,
+                    boolean skipWhenMutex) {
+                return new KeyedSerialStrategy<T, R>(fn, skipWhenMutex, null);
+            }
         }
 
         private AtomicReference<Object> atomicReference;
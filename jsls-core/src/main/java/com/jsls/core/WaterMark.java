@@ -21,6 +21,21 @@ public class WaterMark {
     private String text = DEFAULT_WATER_MARK;
     private String color;
 
+    /**
+     * 水印是否会改变该类型文件的内容
+     * 
+     * @param contentType
+     * @return
+     */
+    public boolean isApplicable(ContentType contentType) {
+        if (!StringUtils.hasText(text) || contentType == null) {
+            return false;
+        }
+        return ExportBiz.CONTENT_TYPE_PDF.equals(contentType) || ExportBiz.CONTENT_TYPE_MSWORD.equals(contentType)
+                || ContentType.IMAGE_JPEG.equals(contentType) || ContentType.IMAGE_GIF.equals(contentType)
+                || ContentType.IMAGE_PNG.equals(contentType);
+    }
+
     public void apply(ContentType contentType, InputStream in, OutputStream out) {
         String waterMark = this.text;
         try {
@@ -0,0 +1,127 @@
+package com.jsls.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.jsls.core.Metrics;
+
+/**
+ * 熔断器
+ * <p>
+ * 1.连续失败达到阈值后打开,打开期间请求直接拒绝
+ * <p>
+ * 2.打开超过openMillis后半开,只放行一个试探请求,成功则关闭,失败则重新打开
+ * <p>
+ * 3.放行的请求持有许可,结束时必须以该许可调用onSuccess、onFailure或release(包括抛出异常时);打开期间只有试探许可的结果生效
+ * <p>
+ * 4.状态变化经Metrics.recorder()计入带标签的指标name.opened/name.closed,name.open为当前是否打开
+ */
+public class CircuitBreaker {
+    /**
+     * 关闭状态下放行的普通许可
+     */
+    private static final Permit PASS = new Permit();
+
+    private final String name;
+    private final Map<String, String> tags;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicReference<Permit> probe = new AtomicReference<>();
+    private volatile long openedAt;
+
+    /**
+     * @param name             指标名前缀
+     * @param failureThreshold 连续失败次数阈值,小于等于0不熔断
+     * @param openMillis       打开持续时间
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this(name, Collections.emptyMap(), failureThreshold, openMillis);
+    }
+
+    /**
+     * @param name             指标名前缀
+     * @param tags             指标标签
+     * @param failureThreshold 连续失败次数阈值,小于等于0不熔断
+     * @param openMillis       打开持续时间
+     */
+    public CircuitBreaker(String name, Map<String, String> tags, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.tags = tags;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        Metrics.recorder().gauge(name + ".open", tags, () -> isOpen() ? 1 : 0);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isOpen() {
+        return openedAt != 0;
+    }
+
+    /**
+     * 申请放行
+     *
+     * @return 许可,熔断中返回null
+     */
+    public Permit tryAcquire() {
+        long opened = openedAt;
+        if (opened == 0) {
+            return PASS;
+        }
+        if (System.currentTimeMillis() - opened < openMillis) {
+            return null;
+        }
+        Permit permit = new Permit();
+        return probe.compareAndSet(null, permit) ? permit : null;
+    }
+
+    public void onSuccess(Permit permit) {
+        failures.set(0);
+        if (openedAt != 0 && permit != PASS && probe.compareAndSet(permit, null)) {
+            openedAt = 0;
+            Metrics.recorder().increment(name + ".closed", tags, 1);
+        }
+    }
+
+    public void onFailure(Permit permit) {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (openedAt != 0) {
+            // 只有试探请求失败才重新打开,打开前发出的请求迟到的失败忽略
+            if (permit != PASS && probe.get() == permit) {
+                openedAt = System.currentTimeMillis();
+                probe.set(null);
+            }
+            return;
+        }
+        if (failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.currentTimeMillis();
+            Metrics.recorder().increment(name + ".opened", tags, 1);
+        }
+    }
+
+    /**
+     * 归还许可但不计结果,用于与上游无关的失败(如本地连接池耗尽);试探许可归还后可再放行一个试探请求
+     *
+     * @param permit
+     */
+    public void release(Permit permit) {
+        if (permit != PASS) {
+            probe.compareAndSet(permit, null);
+        }
+    }
+
+    /**
+     * 放行许可,半开时每个试探请求的许可不同
+     */
+    public static final class Permit {
+        private Permit() {
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.jsls.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * CSV写入器
+ * <p>
+ * 1.列数在创建时确定,行数据写入可复用的数组缓冲,每行不产生额外对象
+ * <p>
+ * 2.按RFC 4180转义:包含逗号、双引号或换行的值用""包裹,值中的"写为""
+ * <p>
+ * 3.UTF-8带BOM头输出,否则Excel打开乱码
+ */
+public class CsvWriter implements BiConsumer<Integer, Object>, Closeable, Flushable {
+    public static final int BUFFER_SIZE = 1024 * 64;
+    private static final char BOM = '\uFEFF';
+    private static final String LINE_END = "\r\n";
+
+    private final Writer writer;
+    private final char[] digits = new char[20];
+    private final int columnCount;
+    private Object[] row;
+    private int lastIndex = -1;
+
+    public CsvWriter(OutputStream out, String... heads) throws IOException {
+        this(out, heads == null ? 0 : heads.length);
+        if (heads != null && heads.length > 0) {
+            for (int i = 0; i < heads.length; i++) {
+                set(i, heads[i]);
+            }
+            writeRow();
+        }
+    }
+
+    public CsvWriter(OutputStream out, int columnCount) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.columnCount = columnCount;
+        this.row = new Object[Math.max(columnCount, 1)];
+        writer.write(BOM);
+    }
+
+    /**
+     * 设置当前行第index列的值
+     *
+     * @param index
+     * @param value
+     */
+    public void set(int index, Object value) {
+        if (index >= row.length) {
+            row = Arrays.copyOf(row, Math.max(index + 1, row.length * 2));
+        }
+        row[index] = value;
+        if (index > lastIndex) {
+            lastIndex = index;
+        }
+    }
+
+    @Override
+    public void accept(Integer index, Object value) {
+        set(index, value);
+    }
+
+    /**
+     * 写出当前行并清空行缓冲,空行不写出,不足列数的行补空列
+     *
+     * @return 是否写出
+     * @throws IOException
+     */
+    public boolean writeRow() throws IOException {
+        if (lastIndex < 0) {
+            return false;
+        }
+        int length = Math.max(lastIndex + 1, columnCount);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = i < row.length ? row[i] : null;
+            if (value != null) {
+                writeValue(value);
+                row[i] = null;
+            }
+        }
+        writer.write(LINE_END);
+        lastIndex = -1;
+        return true;
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            // 不使用科学计数法
+            writer.write(((BigDecimal) value).toPlainString());
+        } else if (value instanceof CharSequence) {
+            writeText((CharSequence) value);
+        } else {
+            writeText(value.toString());
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writer.write(Long.toString(value));
+            return;
+        }
+        boolean negative = value < 0;
+        long temp = negative ? -value : value;
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char) ('0' + (temp % 10));
+            temp /= 10;
+        } while (temp > 0);
+        if (negative) {
+            digits[--pos] = '-';
+        }
+        writer.write(digits, pos, digits.length - pos);
+    }
+
+    private void writeText(CharSequence text) throws IOException {
+        int length = text.length();
+        boolean quote = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        if (!quote) {
+            writer.append(text);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -7,30 +7,54 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.io.ByteOrderMark;
 import org.apache.commons.io.input.BOMInputStream;
 import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CellType;
 import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
 import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.jxls.common.Context;
@@ -43,10 +67,16 @@ import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.jsls.core.Importable;
 import com.jsls.core.Importable.Position;
 import com.jsls.core.Pair;
+import com.jsls.core.Progress.Recorder;
 import com.jsls.core.Result;
 import com.jsls.core.Verifiable;
 import com.opencsv.CSVReader;
@@ -54,6 +84,14 @@ import com.opencsv.CSVReaderBuilder;
 
 public class ExcelUtils {
     private static final Logger logger = LoggerFactory.getLogger(ExcelUtils.class);
+    /**
+     * 流式导出时内存中保留的行数
+     */
+    public static final int STREAM_WINDOW_SIZE = 500;
+    /**
+     * 并行导入时每个任务处理的行数
+     */
+    public static final int PARALLEL_CHUNK_SIZE = 1000;
 
     @SuppressWarnings("null")
     public static List<List<String>> readExcel(MultipartFile file, String sheetName) throws IOException {
@@ -220,7 +258,70 @@ public class ExcelUtils {
     }
 
     /**
-     * 导出CSV 如果数据包含逗号或换行,需要用""包裹
+     * 流式读取csv,逐行推送,内存占用与文件大小无关
+     * <p>
+     * 文件带BOM头时按BOM识别编码,否则使用charsetName
+     * 
+     * @param in
+     * @param charsetName
+     * @param rowConsumer
+     * @throws IOException
+     */
+    public static void readCSV(InputStream in, String charsetName, Consumer<Pair<Position, List<Object>>> rowConsumer)
+            throws IOException {
+        BOMInputStream bomIn = new BOMInputStream(in, ByteOrderMark.UTF_8, ByteOrderMark.UTF_16LE,
+                ByteOrderMark.UTF_16BE);
+        String bomCharsetName = bomIn.getBOMCharsetName();
+        CSVReader csvReader = new CSVReaderBuilder(new BufferedReader(
+                new InputStreamReader(bomIn, bomCharsetName != null ? bomCharsetName : charsetName),
+                IOUtils.BUFFER_SIZE * 8)).build();
+        try {
+            Iterator<String[]> iterator = csvReader.iterator();
+            int rowIndex = 0;
+            while (iterator.hasNext()) {
+                String[] next = iterator.next();
+                List<Object> row = Arrays.asList(Arrays.copyOf(next, next.length, Object[].class));
+                rowConsumer.accept(new Pair<Position, List<Object>>(new Position(rowIndex++, 0), row));
+            }
+        } finally {
+            IOUtils.closeQuietly(csvReader);
+        }
+    }
+
+    /**
+     * 流式导入csv,按recorder.batchSize分批推送校验通过的数据
+     * <p>
+     * 1.第一行为表头,数据转换与校验同exportData
+     * <p>
+     * 2.出现校验失败后不再推送后续批次,stopIfFail为true时立即停止读取
+     * 
+     * @param <B>
+     * @param in
+     * @param charsetName
+     * @param clazz
+     * @param recorder
+     * @param batchConsumer
+     * @param stopIfFail
+     * @return
+     * @throws IOException
+     */
+    public static <B extends Importable> Result<Void> importCsv(InputStream in, String charsetName, Class<B> clazz,
+            Recorder recorder, Consumer<? super List<Pair<Position, B>>> batchConsumer, boolean stopIfFail)
+            throws IOException {
+        RowImporter<B> importer = new RowImporter<>(clazz, recorder, batchConsumer, stopIfFail);
+        recorder.doStart();
+        try {
+            readCSV(in, charsetName, importer);
+        } catch (StopReadException e) {
+            // 校验失败已停止读取
+        }
+        Result<Void> result = importer.finish();
+        recorder.doFinish();
+        return result;
+    }
+
+    /**
+     * 导出CSV 如果数据包含逗号、双引号或换行,会用""包裹
      * 
      * @param <D>
      * @param rowConsumer
@@ -231,38 +332,35 @@ public class ExcelUtils {
     public static <D> void exportCsv(BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer, Collection<D> dataList,
             OutputStream out,
             String... heads) {
-        OutputStreamWriter writer = new OutputStreamWriter(out);
-        try {
-            writer.write(new String(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF }));// 带BOM头否则Excel打开乱码
-            for (String cell : heads) {
-                writer.append(cell).append(",");
-            }
-            writer.append("\n");
-        } catch (IOException e) {
-            logger.error("写入CSV文件BOM头失败:" + e.getMessage(), e);
-        }
+        exportCsv(rowConsumer, dataList.iterator(), out, heads);
+    }
+
+    /**
+     * 流式导出CSV 如果数据包含逗号、双引号或换行,会用""包裹
+     * 
+     * @param <D>
+     * @param rowConsumer
+     * @param iterator
+     * @param out
+     * @param heads
+     */
+    public static <D> void exportCsv(BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer, Iterator<D> iterator,
+            OutputStream out,
+            String... heads) {
+        CsvWriter writer = null;
         try {
-            for (D data : dataList) {
-                Map<Integer, Object> cellValueMap = new HashMap<>();
-                rowConsumer.accept(data, cellValueMap::put);
-                if (cellValueMap.isEmpty()) {
-                    continue;
-                }
-                Integer[] indexs = cellValueMap.keySet().toArray(new Integer[0]);
-                Arrays.sort(indexs);
-                for (int i = 0; i <= indexs[indexs.length - 1]; i++) {
-                    Object item = cellValueMap.get(i);
-                    if (item != null) {
-                        writer.append(item.toString());
-                    }
-                    writer.append(",");
-                }
-                writer.append("\n");
+            writer = new CsvWriter(out, heads);
+            while (iterator.hasNext()) {
+                rowConsumer.accept(iterator.next(), writer);
+                writer.writeRow();
             }
+            writer.flush();
         } catch (IOException e) {
             logger.error("导出CSV文件异常:" + e.getMessage(), e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+            IOUtils.closeQuietly(out);
         }
-        IOUtils.closeQuietly(writer);
     }
 
     /**
@@ -291,6 +389,68 @@ public class ExcelUtils {
         }
     }
 
+    /**
+     * 流式导出Excel,逐行写入SXSSFWorkbook,内存中只保留STREAM_WINDOW_SIZE行
+     * 
+     * @param <D>
+     * @param rowConsumer
+     * @param iterator
+     * @param out
+     * @param heads
+     */
+    public static <D> void exportExcel(BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer, Iterator<D> iterator,
+            OutputStream out, String... heads) {
+        exportExcel(rowConsumer, iterator, STREAM_WINDOW_SIZE, out, heads);
+    }
+
+    /**
+     * 流式导出Excel,逐行写入SXSSFWorkbook,内存中只保留windowSize行
+     * <p>
+     * 超过单个sheet最大行数时自动新建sheet
+     * 
+     * @param <D>
+     * @param rowConsumer
+     * @param iterator
+     * @param windowSize
+     * @param out
+     * @param heads
+     */
+    public static <D> void exportExcel(BiConsumer<D, BiConsumer<Integer, Object>> rowConsumer, Iterator<D> iterator,
+            int windowSize, OutputStream out, String... heads) {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(windowSize);
+        workbook.setCompressTempFiles(true);
+        try {
+            CellStyle headStyle = workbook.createCellStyle();
+            Font font = workbook.createFont();
+            font.setBold(true);
+            headStyle.setFont(font);
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-MM-dd HH:mm:ss"));
+            int maxRows = SpreadsheetVersion.EXCEL2007.getMaxRows();
+            RowWriter writer = new RowWriter(dateStyle);
+            while (iterator.hasNext()) {
+                D data = iterator.next();
+                if (writer.sheet == null || writer.rowIndex >= maxRows) {
+                    writer.useSheet(workbook.createSheet(), headStyle, heads);
+                }
+                rowConsumer.accept(data, writer);
+                writer.nextRow();
+            }
+            if (writer.sheet == null) {
+                writer.useSheet(workbook.createSheet(), headStyle, heads);
+            }
+            workbook.write(out);
+            out.flush();
+        } catch (IOException e) {
+            logger.error("导出Excel失败：" + e.getMessage(), e);
+            throw new RuntimeException(e);
+        } finally {
+            workbook.dispose();
+            IOUtils.closeQuietly(workbook);
+            IOUtils.closeQuietly(out);
+        }
+    }
+
     public static Workbook loadWorkbook(String fileName, InputStream in) throws IOException {
         if (fileName.endsWith(".xlsx")) {
             XSSFWorkbook xssfWorkbook = null;
@@ -560,10 +720,10 @@ public class ExcelUtils {
         Row headRow = sheet.getRow(firstRowNum);
         Pair<Position, List<Object>> head = exportRowData(headRow, firstRowNum);
         Result<Map<Integer, String>> hr = matchHead(head, headMap);
-        if (hr.isSuccess()) {
+        if (!hr.isSuccess()) {
             return hr.copy();
         }
-        Map<Integer, String> propertyMap = hr.getData();
+        RowMapper<B> mapper = RowMapper.of(clazz, hr.getData());
         Position nextRowPosition = head.getV1().bottom();
         int fieldCount = head.getV2().size();
         List<String> emptyMessages = new ArrayList<String>();
@@ -575,7 +735,7 @@ public class ExcelUtils {
                 return Result.fail("读取数据错误:" + rowData.getV1().toString());
             }
             nextRowPosition = nextRowPosition.bottom();
-            Pair<Position, B> rowBean = convertToBean(rowData, clazz, propertyMap);
+            Pair<Position, B> rowBean = mapper.map(rowData);
             B bean = rowBean.getV2();
             if (!(bean instanceof Verifiable)) {
                 data.add(rowBean);
@@ -609,6 +769,88 @@ public class ExcelUtils {
         return Result.success(data);
     }
 
+    /**
+     * 并行导入,结果与错误信息同exportData
+     * <p>
+     * 1.调用线程按PARALLEL_CHUNK_SIZE分段读取行数据,分段的转换与校验在pool中并行执行
+     * <p>
+     * 2.按行顺序合并结果,stopIfFail时遇到失败即取消后续分段
+     * 
+     * @param <B>
+     * @param sheet
+     * @param firstRowNum
+     * @param lastRowNum
+     * @param clazz
+     * @param headMap
+     * @param stopIfFail
+     * @param pool
+     * @return
+     */
+    public static <B> Result<List<Pair<Position, B>>> exportData(Sheet sheet, int firstRowNum, int lastRowNum,
+            Class<B> clazz, Map<String, String> headMap, boolean stopIfFail, ForkJoinPool pool) {
+        Row headRow = sheet.getRow(firstRowNum);
+        Pair<Position, List<Object>> head = exportRowData(headRow, firstRowNum);
+        Result<Map<Integer, String>> hr = matchHead(head, headMap);
+        if (!hr.isSuccess()) {
+            return hr.copy();
+        }
+        RowMapper<B> mapper = RowMapper.of(clazz, hr.getData());
+        Position headPosition = head.getV1();
+        int fieldCount = head.getV2().size();
+        AtomicInteger stopRowNum = new AtomicInteger(Integer.MAX_VALUE);
+        RowFolder<B> folder = new RowFolder<>(stopIfFail);
+        Deque<ForkJoinTask<List<RowOutcome<B>>>> running = new ArrayDeque<>();
+        int maxRunning = pool.getParallelism() * 2;
+        try {
+            for (int start = firstRowNum + 1; start <= lastRowNum && stopRowNum.get() == Integer.MAX_VALUE;
+                    start += PARALLEL_CHUNK_SIZE) {
+                int end = Math.min(start + PARALLEL_CHUNK_SIZE - 1, lastRowNum);
+                List<Pair<Position, List<Object>>> rows = new ArrayList<>(end - start + 1);
+                for (int i = start; i <= end; i++) {
+                    rows.add(exportRowData(sheet.getRow(i), i));
+                }
+                running.add(pool.submit(() -> {
+                    List<RowOutcome<B>> outcomes = new ArrayList<>(rows.size());
+                    for (Pair<Position, List<Object>> rowData : rows) {
+                        int rowNum = rowData.getV1().getRowIndex();
+                        if (rowNum > stopRowNum.get()) {
+                            break;
+                        }
+                        Position nextRowPosition = headPosition.bottom(rowNum - headPosition.getRowIndex());
+                        RowOutcome<B> outcome = RowOutcome.of(rowData, nextRowPosition, fieldCount, mapper);
+                        if (outcome.positionError || (stopIfFail && outcome.message != null)) {
+                            stopRowNum.accumulateAndGet(rowNum, Math::min);
+                        }
+                        outcomes.add(outcome);
+                    }
+                    return outcomes;
+                }));
+                if (running.size() >= maxRunning && folder.fold(running.poll().get())) {
+                    return folder.useResult();
+                }
+            }
+            while (!running.isEmpty()) {
+                if (folder.fold(running.poll().get())) {
+                    return folder.useResult();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("导入中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        } finally {
+            for (ForkJoinTask<?> task : running) {
+                task.cancel(true);
+            }
+        }
+        return folder.useResult();
+    }
+
     private static Result<Map<Integer, String>> matchHead(Pair<Position, List<Object>> head,
             Map<String, String> headMap) {
         Map<Integer, String> propertyMap = new HashMap<>();
@@ -627,21 +869,184 @@ public class ExcelUtils {
         return Result.success(propertyMap);
     }
 
-    @SuppressWarnings("unchecked")
-    public static <B> Pair<Position, B> convertToBean(Pair<Position, List<Object>> rowData, Class<B> clazz,
-            Map<Integer, String> propertyMap) {
-        Pair<Position, B> rowBean = new Pair<>();
-        rowBean.setV1(rowData.getV1());
-        BeanWrapperImpl beanWrapper = new BeanWrapperImpl(clazz);
-        int currentCellIndex = rowBean.getV1().getCellIndex();
-        for (Object value : rowData.getV2()) {
-            if (propertyMap.containsKey(currentCellIndex)) {
-                beanWrapper.setPropertyValue(propertyMap.get(currentCellIndex), value);
+    /**
+     * 流式读取xlsx,逐行推送,内存占用与文件大小无关
+     * <p>
+     * 行数据与exportRowData一致,缺失的行以空行推送;输入流由调用方关闭
+     * 
+     * @param in
+     * @param sheetName   为空时读取第一个sheet
+     * @param rowConsumer
+     * @throws IOException
+     */
+    public static void readXlsx(InputStream in, String sheetName, Consumer<Pair<Position, List<Object>>> rowConsumer)
+            throws IOException {
+        File temp = File.createTempFile("xlsx-", ".xlsx");
+        try {
+            Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            readXlsx(temp, sheetName, rowConsumer);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * 流式读取xlsx,逐行推送,内存占用与文件大小无关
+     * <p>
+     * 行数据与exportRowData一致,缺失的行以空行推送
+     * 
+     * @param file
+     * @param sheetName   为空时读取第一个sheet
+     * @param rowConsumer
+     * @throws IOException
+     */
+    public static void readXlsx(File file, String sheetName, Consumer<Pair<Position, List<Object>>> rowConsumer)
+            throws IOException {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(file, PackageAccess.READ);
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    if (StringUtils.hasText(sheetName) && !sheetName.equals(sheets.getSheetName())) {
+                        continue;
+                    }
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XlsxRowHandler(strings, rowConsumer));
+                    parser.parse(new InputSource(sheet));
+                    return;
+                }
             }
-            currentCellIndex++;
+            throw new IllegalArgumentException("sheet不存在:" + sheetName);
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            logger.error("读取Excel异常:" + e.getMessage(), e);
+            throw new RuntimeException("读取Excel异常:" + e.getMessage(), e);
+        } finally {
+            // 只读打开,close()会尝试保存,这里直接丢弃
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+    }
+
+    /**
+     * 流式导入xlsx,按recorder.batchSize分批推送校验通过的数据
+     * <p>
+     * 1.第一行为表头,数据转换与校验同exportData
+     * <p>
+     * 2.出现校验失败后不再推送后续批次,stopIfFail为true时立即停止读取
+     * 
+     * @param <B>
+     * @param in
+     * @param sheetName
+     * @param clazz
+     * @param recorder
+     * @param batchConsumer
+     * @param stopIfFail
+     * @return
+     * @throws IOException
+     */
+    public static <B extends Importable> Result<Void> importXlsx(InputStream in, String sheetName, Class<B> clazz,
+            Recorder recorder, Consumer<? super List<Pair<Position, B>>> batchConsumer, boolean stopIfFail)
+            throws IOException {
+        RowImporter<B> importer = new RowImporter<>(clazz, recorder, batchConsumer, stopIfFail);
+        recorder.doStart();
+        try {
+            readXlsx(in, sheetName, importer);
+        } catch (StopReadException e) {
+            // 校验失败已停止读取
         }
-        rowBean.setV2((B) beanWrapper.getWrappedInstance());
-        return rowBean;
+        Result<Void> result = importer.finish();
+        recorder.doFinish();
+        return result;
+    }
+
+    /**
+     * 流式导入xlsx,按recorder.batchSize分批推送校验通过的数据
+     * 
+     * @param <B>
+     * @param file
+     * @param sheetName
+     * @param clazz
+     * @param recorder
+     * @param batchConsumer
+     * @param stopIfFail
+     * @return
+     * @throws IOException
+     */
+    public static <B extends Importable> Result<Void> importXlsx(File file, String sheetName, Class<B> clazz,
+            Recorder recorder, Consumer<? super List<Pair<Position, B>>> batchConsumer, boolean stopIfFail)
+            throws IOException {
+        RowImporter<B> importer = new RowImporter<>(clazz, recorder, batchConsumer, stopIfFail);
+        recorder.doStart();
+        try {
+            readXlsx(file, sheetName, importer);
+        } catch (StopReadException e) {
+            // 校验失败已停止读取
+        }
+        Result<Void> result = importer.finish();
+        recorder.doFinish();
+        return result;
+    }
+
+    /**
+     * 流式导入xlsx,按表头映射属性,行数据经RowMapper转换,校验规则同exportData
+     * 
+     * @param <B>
+     * @param file
+     * @param sheetName
+     * @param clazz
+     * @param headMap       列名到属性名
+     * @param recorder
+     * @param batchConsumer
+     * @param stopIfFail
+     * @return
+     * @throws IOException
+     */
+    public static <B> Result<Void> importXlsx(File file, String sheetName, Class<B> clazz, Map<String, String> headMap,
+            Recorder recorder, Consumer<? super List<Pair<Position, B>>> batchConsumer, boolean stopIfFail)
+            throws IOException {
+        RowImporter<B> importer = new RowImporter<>(clazz, headMap, recorder, batchConsumer, stopIfFail);
+        recorder.doStart();
+        try {
+            readXlsx(file, sheetName, importer);
+        } catch (StopReadException e) {
+            // 校验失败已停止读取
+        }
+        Result<Void> result = importer.finish();
+        recorder.doFinish();
+        return result;
+    }
+
+    public static <B> Result<Void> importXlsx(InputStream in, String sheetName, Class<B> clazz,
+            Map<String, String> headMap, Recorder recorder, Consumer<? super List<Pair<Position, B>>> batchConsumer,
+            boolean stopIfFail) throws IOException {
+        RowImporter<B> importer = new RowImporter<>(clazz, headMap, recorder, batchConsumer, stopIfFail);
+        recorder.doStart();
+        try {
+            readXlsx(in, sheetName, importer);
+        } catch (StopReadException e) {
+            // 校验失败已停止读取
+        }
+        Result<Void> result = importer.finish();
+        recorder.doFinish();
+        return result;
+    }
+
+    /**
+     * 行数据转换为bean,setter和类型转换按类缓存;批量转换时应通过RowMapper.of复用映射器
+     * 
+     * @param <B>
+     * @param rowData
+     * @param clazz
+     * @param propertyMap
+     * @return
+     */
+    public static <B> Pair<Position, B> convertToBean(Pair<Position, List<Object>> rowData, Class<B> clazz,
+            Map<Integer, String> propertyMap) {
+        return RowMapper.of(clazz, propertyMap).map(rowData);
     }
 
     public static boolean isEmptyRow(List<Object> row) {
@@ -693,4 +1098,375 @@ public class ExcelUtils {
         row.setV2(rowData);
         return row;
     }
+
+    private static class StopReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * 逐行转换为bean并校验,规则同exportData
+     * <p>
+     * 指定headMap时第一行按列名匹配属性,之后经RowMapper转换;否则按列顺序调用Importable.applyRow
+     * 
+     * @param <B>
+     */
+    private static class RowImporter<B> implements Consumer<Pair<Position, List<Object>>> {
+        private final Class<B> clazz;
+        private final Map<String, String> headMap;
+        private final Recorder recorder;
+        private final Consumer<? super List<Pair<Position, B>>> batchConsumer;
+        private final boolean stopIfFail;
+        private final List<String> emptyMessages = new ArrayList<String>();
+        private final List<String> messages = new ArrayList<String>();
+        private List<Pair<Position, B>> batch = new ArrayList<>();
+        private boolean head = true;
+        private RowMapper<B> mapper;
+
+        private RowImporter(Class<B> clazz, Recorder recorder, Consumer<? super List<Pair<Position, B>>> batchConsumer,
+                boolean stopIfFail) {
+            this(clazz, null, recorder, batchConsumer, stopIfFail);
+        }
+
+        private RowImporter(Class<B> clazz, Map<String, String> headMap, Recorder recorder,
+                Consumer<? super List<Pair<Position, B>>> batchConsumer, boolean stopIfFail) {
+            this.clazz = clazz;
+            this.headMap = headMap;
+            this.recorder = recorder;
+            this.batchConsumer = batchConsumer;
+            this.stopIfFail = stopIfFail;
+        }
+
+        @Override
+        public void accept(Pair<Position, List<Object>> rowData) {
+            if (head) {
+                head = false;
+                if (headMap != null) {
+                    Result<Map<Integer, String>> hr = matchHead(rowData, headMap);
+                    if (!hr.isSuccess()) {
+                        messages.add(hr.getMessage());
+                        throw new StopReadException();
+                    }
+                    mapper = RowMapper.of(clazz, hr.getData());
+                }
+                return;
+            }
+            Pair<Position, B> rowBean;
+            if (mapper != null) {
+                rowBean = mapper.map(rowData);
+            } else {
+                B bean = BeanUtils.instantiateClass(clazz);
+                ((Importable) bean).applyRow(rowData.getV2().toArray());
+                rowBean = new Pair<Position, B>(rowData.getV1(), bean);
+            }
+            B bean = rowBean.getV2();
+            Result<Void> beanResult = bean instanceof Verifiable
+                    ? ((Verifiable) bean).validate(Verifiable.MODE_IMPORT)
+                    : Result.SUCCESS;
+            if (!beanResult.isSuccess()) {
+                String message = "第" + (rowBean.getV1().getRowIndex() + 1) + "行" + beanResult.getMessage();
+                if (stopIfFail) {
+                    messages.add(message);
+                    throw new StopReadException();
+                } else if (isEmptyRow(rowData.getV2())) {
+                    emptyMessages.add(message);
+                } else {
+                    if (!emptyMessages.isEmpty()) {
+                        messages.addAll(emptyMessages);
+                        emptyMessages.clear();
+                    }
+                    messages.add(message);
+                }
+            } else if (!emptyMessages.isEmpty()) {
+                messages.addAll(emptyMessages);
+                emptyMessages.clear();
+            } else if (messages.isEmpty()) {
+                batch.add(rowBean);
+                if (batch.size() >= recorder.getBatchSize()) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() {
+            if (!batch.isEmpty()) {
+                batchConsumer.accept(batch);
+                recorder.doProgress();
+                batch = new ArrayList<>();
+            }
+        }
+
+        private Result<Void> finish() {
+            if (!messages.isEmpty()) {
+                if (stopIfFail || (headMap != null && mapper == null)) {
+                    return Result.fail(messages.get(0));
+                }
+                return Result.fail(messages.toString());
+            }
+            flush();
+            return Result.SUCCESS;
+        }
+    }
+
+    /**
+     * xlsx sheet的SAX解析器,单元格取值规则同exportRowData
+     */
+    private static class XlsxRowHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable strings;
+        private final Consumer<Pair<Position, List<Object>>> rowConsumer;
+        private final StringBuilder text = new StringBuilder();
+        private int nextRowIndex = -1;
+        private int rowIndex;
+        private int firstCellIndex;
+        private List<Object> row;
+        private int cellIndex;
+        private String cellType;
+        private boolean formula;
+        private boolean inValue;
+        private boolean inInlineString;
+
+        private XlsxRowHandler(ReadOnlySharedStringsTable strings,
+                Consumer<Pair<Position, List<Object>>> rowConsumer) {
+            this.strings = strings;
+            this.rowConsumer = rowConsumer;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("row".equals(localName)) {
+                String r = attributes.getValue("r");
+                rowIndex = r != null ? Integer.parseInt(r) - 1 : Math.max(nextRowIndex, 0);
+                firstCellIndex = -1;
+                cellIndex = -1;
+                row = new ArrayList<Object>();
+            } else if ("c".equals(localName)) {
+                String r = attributes.getValue("r");
+                cellIndex = r != null ? new CellReference(r).getCol() : cellIndex + 1;
+                cellType = attributes.getValue("t");
+                formula = false;
+                text.setLength(0);
+            } else if ("f".equals(localName)) {
+                formula = true;
+            } else if ("v".equals(localName)) {
+                inValue = true;
+            } else if ("is".equals(localName)) {
+                inInlineString = true;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("v".equals(localName)) {
+                inValue = false;
+            } else if ("is".equals(localName)) {
+                inInlineString = false;
+            } else if ("c".equals(localName)) {
+                if (firstCellIndex < 0) {
+                    firstCellIndex = cellIndex;
+                }
+                for (int i = firstCellIndex + row.size(); i < cellIndex; i++) {
+                    row.add(null);
+                }
+                row.add(useCellValue());
+            } else if ("row".equals(localName)) {
+                for (int i = nextRowIndex; i >= 0 && i < rowIndex; i++) {
+                    rowConsumer.accept(new Pair<Position, List<Object>>(new Position(i, 0), new ArrayList<Object>()));
+                }
+                Position position = new Position(rowIndex, Math.max(firstCellIndex, 0));
+                rowConsumer.accept(new Pair<Position, List<Object>>(position, row));
+                nextRowIndex = rowIndex + 1;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue || inInlineString) {
+                text.append(ch, start, length);
+            }
+        }
+
+        private Object useCellValue() {
+            if (formula) {
+                return null;
+            }
+            String value = text.toString();
+            if ("s".equals(cellType)) {
+                return strings.getItemAt(Integer.parseInt(value)).getString();
+            } else if ("inlineStr".equals(cellType)) {
+                return value;
+            } else if ("b".equals(cellType)) {
+                return "1".equals(value);
+            } else if (cellType == null || "n".equals(cellType)) {
+                return value.isEmpty() ? null : Double.valueOf(value);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 流式导出的行写入器,空行不占用行号
+     */
+    private static class RowWriter implements BiConsumer<Integer, Object> {
+        private final CellStyle dateStyle;
+        private Sheet sheet;
+        private Row row;
+        private int rowIndex;
+
+        private RowWriter(CellStyle dateStyle) {
+            this.dateStyle = dateStyle;
+        }
+
+        private void useSheet(Sheet sheet, CellStyle headStyle, String... heads) {
+            this.sheet = sheet;
+            this.row = null;
+            this.rowIndex = 0;
+            if (heads != null && heads.length > 0) {
+                Row headRow = sheet.createRow(rowIndex++);
+                for (int i = 0; i < heads.length; i++) {
+                    Cell cell = headRow.createCell(i);
+                    cell.setCellStyle(headStyle);
+                    cell.setCellValue(heads[i]);
+                }
+            }
+        }
+
+        private void nextRow() {
+            if (row != null) {
+                row = null;
+                rowIndex++;
+            }
+        }
+
+        @Override
+        public void accept(Integer index, Object value) {
+            if (value == null) {
+                return;
+            }
+            if (row == null) {
+                row = sheet.createRow(rowIndex);
+            }
+            Cell cell = row.createCell(index);
+            if (value instanceof BigDecimal && !fitsDouble((BigDecimal) value)) {
+                cell.setCellValue(((BigDecimal) value).toPlainString());
+            } else if ((value instanceof Long || value instanceof BigInteger) && !fitsDouble(value.toString())) {
+                cell.setCellValue(value.toString());
+            } else if (value instanceof Number) {
+                cell.setCellValue(((Number) value).doubleValue());
+            } else if (value instanceof Date) {
+                cell.setCellStyle(dateStyle);
+                cell.setCellValue((Date) value);
+            } else if (value instanceof Boolean) {
+                cell.setCellValue((Boolean) value);
+            } else {
+                cell.setCellValue(value.toString());
+            }
+        }
+
+        /**
+         * Excel数值只保留15位有效数字,超出的以文本写入,与exportCsv输出的数字一致
+         */
+        private static boolean fitsDouble(BigDecimal value) {
+            return value.signum() == 0 || value.stripTrailingZeros().precision() <= 15;
+        }
+
+        private static boolean fitsDouble(String integer) {
+            return integer.length() - (integer.charAt(0) == '-' ? 1 : 0) <= 15;
+        }
+    }
+
+    /**
+     * 并行导入中单行的转换与校验结果
+     * 
+     * @param <B>
+     */
+    private static class RowOutcome<B> {
+        private Pair<Position, B> rowBean;
+        private Position position;
+        private boolean positionError;
+        private boolean verifiable;
+        private boolean empty;
+        private String message;
+
+        private static <B> RowOutcome<B> of(Pair<Position, List<Object>> rowData, Position nextRowPosition,
+                int fieldCount, RowMapper<B> mapper) {
+            RowOutcome<B> outcome = new RowOutcome<>();
+            outcome.position = rowData.getV1();
+            if (!nextRowPosition.cellRegion(fieldCount).inRegion(rowData.getV1().cellRegion(rowData.getV2().size()))) {
+                outcome.positionError = true;
+                return outcome;
+            }
+            outcome.rowBean = mapper.map(rowData);
+            B bean = outcome.rowBean.getV2();
+            if (bean instanceof Verifiable) {
+                outcome.verifiable = true;
+                Result<Void> beanResult = ((Verifiable) bean).validate(Verifiable.MODE_IMPORT);
+                if (!beanResult.isSuccess()) {
+                    outcome.message = "第" + (outcome.position.getRowIndex() + 1) + "行" + beanResult.getMessage();
+                    outcome.empty = isEmptyRow(rowData.getV2());
+                }
+            }
+            return outcome;
+        }
+    }
+
+    /**
+     * 按行顺序合并并行导入结果,规则同exportData
+     * 
+     * @param <B>
+     */
+    private static class RowFolder<B> {
+        private final boolean stopIfFail;
+        private final List<Pair<Position, B>> data = new ArrayList<Pair<Position, B>>();
+        private final List<String> emptyMessages = new ArrayList<String>();
+        private final List<String> messages = new ArrayList<String>();
+        private Result<List<Pair<Position, B>>> stopResult;
+
+        private RowFolder(boolean stopIfFail) {
+            this.stopIfFail = stopIfFail;
+        }
+
+        /**
+         * @param outcomes
+         * @return 是否提前结束
+         */
+        private boolean fold(List<RowOutcome<B>> outcomes) {
+            for (RowOutcome<B> outcome : outcomes) {
+                if (outcome.positionError) {
+                    stopResult = Result.fail("读取数据错误:" + outcome.position.toString());
+                    return true;
+                }
+                if (!outcome.verifiable) {
+                    data.add(outcome.rowBean);
+                } else if (outcome.message != null) {
+                    if (stopIfFail) {
+                        stopResult = Result.fail(outcome.message);
+                        return true;
+                    } else if (outcome.empty) {
+                        emptyMessages.add(outcome.message);
+                    } else {
+                        if (!emptyMessages.isEmpty()) {
+                            messages.addAll(emptyMessages);
+                            emptyMessages.clear();
+                        }
+                        messages.add(outcome.message);
+                    }
+                } else if (!emptyMessages.isEmpty()) {
+                    messages.addAll(emptyMessages);
+                    emptyMessages.clear();
+                } else if (messages.isEmpty()) {
+                    data.add(outcome.rowBean);
+                }
+            }
+            return false;
+        }
+
+        private Result<List<Pair<Position, B>>> useResult() {
+            if (stopResult != null) {
+                return stopResult;
+            }
+            if (!messages.isEmpty()) {
+                return Result.fail(messages.toString());
+            }
+            return Result.success(data);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package com.jsls.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Data;
+
+/**
+ * http客户端配置
+ * <p>
+ * 1.每个配置对应一个独立的连接池,不同上游(如支付网关、文件服务)互不影响
+ * <p>
+ * 2.通过hosts绑定上游主机,请求按主机选择配置,未绑定的使用默认配置
+ * <p>
+ * 3.注册后修改不生效,需重新注册
+ */
+@Data
+public class HttpClientProfile {
+    public static final String DEFAULT = "default";
+    public static final String FILE = "file";
+
+    private final String name;
+    /**
+     * 绑定的主机,如 pay.example.com 或 pay.example.com:8443
+     */
+    private Set<String> hosts = new LinkedHashSet<>();
+    /**
+     * 连接池中最大连接数
+     */
+    private int maxConnTotal = 200;
+    /**
+     * 每个route(目标主机)默认最大连接数
+     */
+    private int maxConnPerRoute = 100;
+    /**
+     * 指定主机的最大连接数,主机格式同hosts
+     */
+    private Map<String, Integer> routeMaxConn = new HashMap<>();
+    /**
+     * 每个route最大并发请求数,异步请求超出时排队等待,同步请求超出时等待bulkheadWaitMillis后拒绝
+     */
+    private int maxConcurrentPerRoute = 100;
+    /**
+     * 同步请求等待并发许可的时间
+     */
+    private long bulkheadWaitMillis = 2000;
+    /**
+     * 从连接池中获取连接的超时时间
+     */
+    private int connectionRequestTimeout = 2000;
+    private int connectTimeout = 5000;
+    private int socketTimeout = 5000;
+    /**
+     * 服务端未返回Keep-Alive时连接的保持时间
+     */
+    private long keepAliveMillis = 30000;
+    /**
+     * 连接空闲超过该时间后再次使用前先校验是否可用
+     */
+    private int validateAfterInactivityMillis = 2000;
+    /**
+     * 空闲超过该时间的连接被回收
+     */
+    private long maxIdleMillis = 60000;
+    /**
+     * 连接最长存活时间,小于等于0不限制
+     */
+    private long timeToLiveMillis = 60000;
+    /**
+     * io异常(超时除外)或429/502/503/504时的重试次数,只重试幂等请求
+     */
+    private int retryCount = 3;
+    /**
+     * 是否重试非幂等请求
+     */
+    private boolean retryNonIdempotent = false;
+    /**
+     * 重试退避的初始间隔,每次翻倍,实际间隔在0到该值间随机
+     */
+    private long retryBackoffMillis = 100;
+    private long retryMaxBackoffMillis = 2000;
+    /**
+     * 主机连续失败(io异常或502/503/504)达到该次数后熔断,小于等于0不熔断
+     */
+    private int breakerFailureThreshold = 20;
+    /**
+     * 熔断持续时间,之后放行一个试探请求,成功则恢复
+     */
+    private long breakerOpenMillis = 10000;
+    /**
+     * get请求超过该时间未返回时再发出一个相同请求,先返回的生效,小于等于0不对冲
+     */
+    private long hedgeDelayMillis = 0;
+    /**
+     * 对冲请求数最多占请求数的百分比
+     */
+    private int hedgeMaxPercent = 10;
+    /**
+     * 请求耗时超过该时间时输出慢请求日志,小于等于0不输出
+     */
+    private long slowCallMillis = 0;
+
+    public HttpClientProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 绑定上游主机
+     *
+     * @param hosts
+     * @return
+     */
+    public HttpClientProfile bind(String... hosts) {
+        for (String host : hosts) {
+            this.hosts.add(host.toLowerCase());
+        }
+        return this;
+    }
+}
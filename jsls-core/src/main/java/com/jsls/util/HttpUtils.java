@@ -1,24 +1,69 @@
 package com.jsls.util;
 
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.net.ssl.SSLException;
 
 import org.apache.http.Consts;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
+import org.apache.http.NoHttpResponseException;
 import org.apache.http.ParseException;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.config.RequestConfig;
@@ -30,22 +75,37 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
-import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.CollectionUtils;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.jsls.core.Metrics;
+
 /**
  * http 工具类
  * 
@@ -54,37 +114,277 @@ import org.springframework.util.CollectionUtils;
  */
 public class HttpUtils {
     public static final Logger logger = LoggerFactory.getLogger(HttpUtils.class);
+    public static final int DOWNLOAD_BUFFER_SIZE = 1024 * 64;
 
-    private static class HttpClientHolder {
-        private static final CloseableHttpClient HTTP_CLIENT;
-        static {
-            HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
-            // 连接池中最大连接数
-            httpClientBuilder.setMaxConnTotal(200);
-            /**
-             * 分配给同一个route(路由)最大的并发连接数。
-             * route：运行环境机器 到 目标机器的一条线路。
-             * 举例来说，我们使用HttpClient的实现来分别请求 www.baidu.com 的资源和 www.bing.com
-             * 的资源那么他就会产生两个route。
-             */
-            httpClientBuilder.setMaxConnPerRoute(100)
-                    .evictIdleConnections(60, TimeUnit.SECONDS) // 定期回收空闲连接
-                    .evictExpiredConnections() // 定期回收过期连接
-                    .setConnectionTimeToLive(60, TimeUnit.SECONDS)// 连接存活时间，如果不设置，则根据长连接信息决定
-                    .setConnectionReuseStrategy(DefaultConnectionReuseStrategy.INSTANCE)
-                    .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
-                    .setRetryHandler(new DefaultHttpRequestRetryHandler(3, false));// false 不重试非幂等请求
+    private static final Map<String, HttpClientProfile> profiles = new ConcurrentHashMap<>();
+    private static final Map<String, HttpClientProfile> hostProfiles = new ConcurrentHashMap<>();
+    private static final Map<String, ProfileClient> clients = new ConcurrentHashMap<>();
+    /**
+     * 重新注册配置后,旧客户端等待进行中的请求结束的最长时间
+     */
+    private static final long CLIENT_CLOSE_MAX_WAIT_MILLIS = 10 * 60 * 1000;
+    private static final Map<String, RouteLimiter> routeLimiters = new ConcurrentHashMap<>();
+    private static final Map<String, RouteGuard> routeGuards = new ConcurrentHashMap<>();
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(
+            Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE"));
+    private static final Set<Integer> RETRY_STATUS = new HashSet<>(Arrays.asList(429, 502, 503, 504));
+    static {
+        profiles.put(HttpClientProfile.DEFAULT, new HttpClientProfile(HttpClientProfile.DEFAULT));
+        HttpClientProfile fileProfile = new HttpClientProfile(HttpClientProfile.FILE);
+        fileProfile.setSocketTimeout(60000);
+        profiles.put(HttpClientProfile.FILE, fileProfile);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                for (ProfileClient profileClient : clients.values()) {
+                    IOUtils.closeQuietly(profileClient.client);
+                }
+            }
+        });
+    }
+
+    /**
+     * 注册客户端配置,同名配置的客户端按新配置重建
+     * <p>
+     * 旧客户端不再接收新请求,连接池中没有借出的连接后关闭,最多等待10分钟
+     * 
+     * @param profile
+     */
+    public static synchronized void registerProfile(HttpClientProfile profile) {
+        HttpClientProfile old = profiles.put(profile.getName(), profile);
+        if (old != null) {
+            hostProfiles.values().removeIf(p -> p == old);
+        }
+        for (String host : profile.getHosts()) {
+            hostProfiles.put(host, profile);
+        }
+        retireStaleClient(profile.getName(), profile);
+        routeLimiters.keySet().removeIf(key -> key.startsWith(profile.getName() + "|"));
+        routeGuards.keySet().removeIf(key -> key.startsWith(profile.getName() + "|"));
+    }
+
+    public static HttpClientProfile useProfile(String name) {
+        HttpClientProfile profile = profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("http客户端配置不存在:" + name);
+        }
+        return profile;
+    }
+
+    /**
+     * 按请求的目标主机选择配置
+     * <p>
+     * 未绑定主机时,路径名包含upload/download/attachment或以send开头的请求使用file配置(读超时60秒),其余使用默认配置
+     * 
+     * @param request
+     * @return
+     */
+    public static HttpClientProfile useProfile(HttpUriRequest request) {
+        URI uri = request.getURI();
+        String host = uri.getHost();
+        if (host != null) {
+            host = host.toLowerCase();
+            HttpClientProfile profile = uri.getPort() > 0 ? hostProfiles.get(host + ":" + uri.getPort()) : null;
+            if (profile == null) {
+                profile = hostProfiles.get(host);
+            }
+            if (profile != null) {
+                return profile;
+            }
+        }
+        String path = uri.getPath() == null ? "" : uri.getPath();
+        int ldi = path.lastIndexOf("/");
+        String mLowerCase = (ldi >= 0 ? path.substring(ldi + 1) : path).toLowerCase();
+        if (mLowerCase.contains("upload") || mLowerCase.contains("download") || mLowerCase.contains("attachment")
+                || mLowerCase.startsWith("send")) {
+            return profiles.get(HttpClientProfile.FILE);
+        }
+        return profiles.get(HttpClientProfile.DEFAULT);
+    }
+
+    /**
+     * 按当前注册的同名配置取客户端,请求持有的配置已被重新注册时也不会用旧配置重建客户端
+     * 
+     * @param profile
+     * @return
+     */
+    private static CloseableHttpClient useClient(HttpClientProfile profile) {
+        String name = profile.getName();
+        HttpClientProfile current = profiles.get(name);
+        if (current == null) {
+            throw new IllegalArgumentException("http客户端配置未注册:" + name);
+        }
+        ProfileClient profileClient = clients.get(name);
+        if (profileClient != null && profileClient.profile == current) {
+            return profileClient.client;
+        }
+        ProfileClient[] stale = new ProfileClient[1];
+        profileClient = clients.compute(name, (k, old) -> {
+            if (old != null && old.profile == current) {
+                return old;
+            }
+            stale[0] = old;
+            return buildClient(current);
+        });
+        if (stale[0] != null) {
+            closeWhenIdle(stale[0], System.currentTimeMillis());
+        }
+        return profileClient.client;
+    }
+
+    /**
+     * 移除不是按current建立的客户端,等空闲后关闭
+     * 
+     * @param name
+     * @param current
+     */
+    private static void retireStaleClient(String name, HttpClientProfile current) {
+        ProfileClient[] stale = new ProfileClient[1];
+        clients.computeIfPresent(name, (k, profileClient) -> {
+            if (profileClient.profile == current) {
+                return profileClient;
+            }
+            stale[0] = profileClient;
+            return null;
+        });
+        if (stale[0] != null) {
+            closeWhenIdle(stale[0], System.currentTimeMillis());
+        }
+    }
+
+    private static void closeWhenIdle(ProfileClient profileClient, long since) {
+        PoolStats stats = profileClient.connectionManager.getTotalStats();
+        if (stats.getLeased() == 0 && stats.getPending() == 0
+                || System.currentTimeMillis() - since >= CLIENT_CLOSE_MAX_WAIT_MILLIS) {
+            IOUtils.closeQuietly(profileClient.client);
+            return;
+        }
+        TimerHolder.SCHEDULER.schedule(() -> closeWhenIdle(profileClient, since), 1, TimeUnit.SECONDS);
+    }
+
+    private static ProfileClient buildClient(HttpClientProfile profile) {
+        PoolingHttpClientConnectionManager connectionManager = new MeteredConnectionManager(profile);
+        // 连接池中最大连接数
+        connectionManager.setMaxTotal(profile.getMaxConnTotal());
+        // 分配给同一个route(目标主机)最大的并发连接数
+        connectionManager.setDefaultMaxPerRoute(profile.getMaxConnPerRoute());
+        for (Map.Entry<String, Integer> entry : profile.getRouteMaxConn().entrySet()) {
+            for (String scheme : new String[] { "http", "https" }) {
+                boolean secure = "https".equals(scheme);
+                HttpHost target = HttpHost.create(scheme + "://" + entry.getKey());
+                if (target.getPort() <= 0) {
+                    target = new HttpHost(target.getHostName(), secure ? 443 : 80, scheme);
+                }
+                // 与DefaultRoutePlanner生成的直连route一致
+                connectionManager.setMaxPerRoute(new HttpRoute(target, null, secure), entry.getValue());
+            }
+        }
+        // 空闲一段时间的连接在复用前先校验,避免使用已被服务端关闭的连接
+        connectionManager.setValidateAfterInactivity(profile.getValidateAfterInactivityMillis());
+        // 连接池使用情况,用于评估maxConnTotal/maxConnPerRoute
+        Map<String, String> tags = Collections.singletonMap("client", profile.getName());
+        Metrics.Recorder recorder = Metrics.recorder();
+        recorder.gauge("http.client.pool.leased", tags, () -> connectionManager.getTotalStats().getLeased());
+        recorder.gauge("http.client.pool.available", tags, () -> connectionManager.getTotalStats().getAvailable());
+        recorder.gauge("http.client.pool.pending", tags, () -> connectionManager.getTotalStats().getPending());
+        recorder.gauge("http.client.pool.max", tags, () -> connectionManager.getTotalStats().getMax());
+        long keepAliveMillis = profile.getKeepAliveMillis();
+        CloseableHttpClient client = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .evictIdleConnections(profile.getMaxIdleMillis(), TimeUnit.MILLISECONDS) // 定期回收空闲连接
+                .evictExpiredConnections() // 定期回收过期连接
+                .setConnectionReuseStrategy(DefaultConnectionReuseStrategy.INSTANCE)
+                .setKeepAliveStrategy((response, context) -> {
+                    // 服务端返回Keep-Alive时以服务端为准,否则使用配置的保持时间
+                    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response,
+                            context);
+                    return duration > 0 ? duration : keepAliveMillis;
+                })
+                // 服务端已关闭的keep-alive连接立即重试一次,其余重试由doRequest按退避策略处理
+                .setRetryHandler((exception, executionCount, context) -> executionCount <= 1
+                        && exception instanceof NoHttpResponseException
+                        && isRetryable(HttpClientContext.adapt(context).getRequest(), profile))
+                .setDefaultRequestConfig(useRequestConfig(profile))
+                .build();
+        return new ProfileClient(profile, client, connectionManager);
+    }
 
+    /**
+     * 客户端及其配置和连接池,配置用于判断客户端是否过期,连接池用于判断旧客户端是否空闲
+     */
+    private static class ProfileClient {
+        private final HttpClientProfile profile;
+        private final CloseableHttpClient client;
+        private final PoolingHttpClientConnectionManager connectionManager;
+
+        ProfileClient(HttpClientProfile profile, CloseableHttpClient client,
+                PoolingHttpClientConnectionManager connectionManager) {
+            this.profile = profile;
+            this.client = client;
+            this.connectionManager = connectionManager;
+        }
+    }
+
+    /**
+     * 按配置生成请求超时设置,可用于给单个请求指定配置
+     * 
+     * @param profile
+     * @return
+     */
+    public static RequestConfig useRequestConfig(HttpClientProfile profile) {
+        return RequestConfig.custom()
+                // 从连接池中获取连接的超时时间
+                .setConnectionRequestTimeout(profile.getConnectionRequestTimeout())
+                // 与服务器连接超时时间
+                .setConnectTimeout(profile.getConnectTimeout())
+                // socket读数据超时时间：从服务器获取响应数据的超时时间
+                .setSocketTimeout(profile.getSocketTimeout())
+                .build();
+    }
+
+    /**
+     * 异步客户端所有配置共用io线程,每个route的并发由RouteLimiter控制,连接池上限放宽避免排队的请求获取连接超时
+     */
+    private static class AsyncHttpClientHolder {
+        private static final CloseableHttpAsyncClient HTTP_CLIENT;
+        /**
+         * 完成future的线程,依赖阶段不在io线程上执行
+         */
+        private static final Executor CALLBACK_EXECUTOR;
+        static {
+            IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                    .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                    .setConnectTimeout(5000)
+                    .setSoTimeout(60000)
+                    .build();
             RequestConfig requestConfig = RequestConfig.custom()
-                    // 从连接池中获取连接的超时时间
                     .setConnectionRequestTimeout(2000)
-                    // 与服务器连接超时时间：httpclient会创建一个异步线程用以创建socket连接，此处设置该socket的连接超时时间
                     .setConnectTimeout(5000)
-                    // socket读数据超时时间：从服务器获取响应数据的超时时间
-                    .setSocketTimeout(5000)
+                    .setSocketTimeout(60000)
+                    .build();
+            HTTP_CLIENT = HttpAsyncClients.custom()
+                    .setMaxConnTotal(2000)
+                    .setMaxConnPerRoute(1000)
+                    .setConnectionReuseStrategy(DefaultConnectionReuseStrategy.INSTANCE)
+                    .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                    .setDefaultIOReactorConfig(ioReactorConfig)
+                    .setDefaultRequestConfig(requestConfig)
                     .build();
-            httpClientBuilder.setDefaultRequestConfig(requestConfig);
-            HTTP_CLIENT = httpClientBuilder.build();
+            HTTP_CLIENT.start();
+            ThreadPoolExecutor callbackExecutor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+                    Runtime.getRuntime().availableProcessors(), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "http-async-callback-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            callbackExecutor.allowCoreThreadTimeOut(true);
+            CALLBACK_EXECUTOR = callbackExecutor;
             Runtime.getRuntime().addShutdownHook(new Thread() {
                 @Override
                 public void run() {
@@ -218,13 +518,7 @@ public class HttpUtils {
             }
 
         }
-        ContentType contentType = ContentType.create("text/plain", Consts.UTF_8);
-        for (Map.Entry<String, ?> entry : paramMap.entrySet()) {
-            if (entry.getValue() == null) {
-                continue;
-            }
-            builder.addTextBody(entry.getKey(), useParamValue(entry.getValue()), contentType);
-        }
+        addTextBodies(builder, paramMap);
         HttpEntity entity = builder.build();
         httpPost.setEntity(entity);
         return consumeRequest(httpPost);
@@ -234,6 +528,52 @@ public class HttpUtils {
         return upload(url, Collections.singletonList(multipartInfo), paramMap);
     }
 
+    /**
+     * 上传文件,文件长度已知,请求带Content-Length且发送时从文件分块读取,不整体载入内存
+     * 
+     * @param url
+     * @param files    表单字段名到文件
+     * @param paramMap
+     * @return
+     */
+    public static String upload(String url, Map<String, File> files, Map<String, ?> paramMap) {
+        HttpPost httpPost = new HttpPost(url);
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            File file = entry.getValue();
+            try {
+                String fileName = java.net.URLEncoder.encode(file.getName(), "UTF-8");
+                builder.addBinaryBody(entry.getKey(), file, ContentType.MULTIPART_FORM_DATA, fileName);
+            } catch (UnsupportedEncodingException e) {
+                // never
+            }
+        }
+        addTextBodies(builder, paramMap);
+        httpPost.setEntity(builder.build());
+        return consumeRequest(httpPost);
+    }
+
+    public static String upload(String url, String fileKey, File file, Map<String, ?> paramMap) {
+        return upload(url, Collections.singletonMap(fileKey, file), paramMap);
+    }
+
+    public static String upload(String url, String fileKey, Path path, Map<String, ?> paramMap) {
+        return upload(url, Collections.singletonMap(fileKey, path.toFile()), paramMap);
+    }
+
+    private static void addTextBodies(MultipartEntityBuilder builder, Map<String, ?> paramMap) {
+        if (CollectionUtils.isEmpty(paramMap)) {
+            return;
+        }
+        ContentType contentType = ContentType.create("text/plain", Consts.UTF_8);
+        for (Map.Entry<String, ?> entry : paramMap.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            builder.addTextBody(entry.getKey(), useParamValue(entry.getValue()), contentType);
+        }
+    }
+
     /**
      * get 请求
      * 
@@ -352,22 +692,244 @@ public class HttpUtils {
     }
 
     public static void request(HttpUriRequest request, Consumer<HttpResponse> consumer) {
-        HttpEntity httpEntity = null;
-        HttpResponse httpResponse;
-        try {
-            httpResponse = doRequest(request);
-            httpEntity = httpResponse.getEntity();
+        consumeResponse(request, useProfile(request), httpResponse -> {
             if (consumer != null) {
                 consumer.accept(httpResponse);
             }
-        } finally {
-            if (httpEntity != null) {
-                try {
-                    EntityUtils.consume(httpEntity);
-                } catch (IOException e) {
-                    // ignore
+            return null;
+        });
+    }
+
+    /**
+     * 异步执行请求,响应内容由consumer在io线程上按到达顺序消费,不占用调用线程
+     * <p>
+     * consumer可通过IOControl暂停/恢复读取上游数据实现流控
+     * 
+     * @param <T>
+     * @param request
+     * @param consumer
+     * @param callback
+     * @return
+     */
+    public static <T> Future<T> requestAsync(HttpUriRequest request, HttpAsyncResponseConsumer<T> consumer,
+            FutureCallback<T> callback) {
+        CompletableFuture<T> future = requestAsync(request, consumer);
+        if (callback != null) {
+            future.whenComplete((result, e) -> {
+                if (e == null) {
+                    callback.completed(result);
+                } else if (e instanceof CancellationException) {
+                    callback.cancelled();
+                } else {
+                    callback.failed(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * 异步执行请求,按请求的客户端配置设置超时并限制每个route的并发
+     * <p>
+     * 超出并发的请求在队列中等待,有请求完成时依次发出;取消返回的future会中断进行中的请求
+     * <p>
+     * 返回的future在回调线程池上完成,依赖阶段不会占用io线程;耗时的后续处理仍建议使用*Async方法指定线程池
+     * 
+     * @param <T>
+     * @param request
+     * @param consumer
+     * @return
+     */
+    public static <T> CompletableFuture<T> requestAsync(HttpUriRequest request,
+            HttpAsyncResponseConsumer<T> consumer) {
+        HttpClientProfile profile = useProfile(request);
+        if (request instanceof HttpRequestBase && ((HttpRequestBase) request).getConfig() == null) {
+            ((HttpRequestBase) request).setConfig(useRequestConfig(profile));
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+        future.whenComplete((result, e) -> recordCall(request, profile, start,
+                result instanceof HttpResponse ? ((HttpResponse) result).getStatusLine().getStatusCode() : -1,
+                e == null, result instanceof HttpResponse ? ((HttpResponse) result).getEntity() : null));
+        RouteLimiter limiter = useRouteLimiter(profile, request);
+        limiter.submit(() -> {
+            if (future.isDone()) {
+                // 排队期间已取消
+                return false;
+            }
+            Future<T> f;
+            try {
+                f = AsyncHttpClientHolder.HTTP_CLIENT.execute(HttpAsyncMethods.create(request), consumer,
+                        new FutureCallback<T>() {
+                            @Override
+                            public void completed(T result) {
+                                limiter.release();
+                                completeAsync(() -> future.complete(result));
+                            }
+
+                            @Override
+                            public void failed(Exception e) {
+                                limiter.release();
+                                logger.error("http请求异常:" + e.getMessage(), e);
+                                completeAsync(() -> future.completeExceptionally(
+                                        new RuntimeException("http请求异常:" + e.getMessage(), e)));
+                            }
+
+                            @Override
+                            public void cancelled() {
+                                limiter.release();
+                                completeAsync(() -> future.cancel(false));
+                            }
+                        });
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                return false;
+            }
+            future.whenComplete((result, e) -> {
+                if (future.isCancelled()) {
+                    f.cancel(true);
                 }
+            });
+            return true;
+        });
+        return future;
+    }
+
+    private static void completeAsync(Runnable completion) {
+        try {
+            AsyncHttpClientHolder.CALLBACK_EXECUTOR.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    /**
+     * 异步执行请求,响应内容读为字符串
+     * 
+     * @param request
+     * @return
+     */
+    public static CompletableFuture<String> consumeRequestAsync(HttpUriRequest request) {
+        return requestAsync(request, HttpAsyncMethods.createConsumer()).thenApply(HttpUtils::toText);
+    }
+
+    public static CompletableFuture<String> getAsync(String url) {
+        return consumeRequestAsync(new HttpGet(url));
+    }
+
+    public static CompletableFuture<String> getAsync(String url, Map<String, ?> data) {
+        return consumeRequestAsync(buildUriRequest(url, data, false));
+    }
+
+    public static CompletableFuture<String> deleteAsync(String url) {
+        return consumeRequestAsync(new HttpDelete(url));
+    }
+
+    public static CompletableFuture<String> deleteAsync(String url, Map<String, ?> data) {
+        return consumeRequestAsync(buildUriRequest(url, data, true));
+    }
+
+    public static CompletableFuture<String> postAsync(String url, Map<String, ?> data) {
+        return consumeRequestAsync(buildFormRequest(url, data, false));
+    }
+
+    public static CompletableFuture<String> postAsync(String url, String json) {
+        return consumeRequestAsync(buildJsonRequest(url, json, false));
+    }
+
+    public static CompletableFuture<String> putAsync(String url, Map<String, ?> data) {
+        return consumeRequestAsync(buildFormRequest(url, data, true));
+    }
+
+    public static CompletableFuture<String> putAsync(String url, String json) {
+        return consumeRequestAsync(buildJsonRequest(url, json, true));
+    }
+
+    private static String toText(HttpResponse httpResponse) {
+        HttpEntity httpEntity = httpResponse.getEntity();
+        if (httpEntity == null) {
+            return null;
+        }
+        try {
+            return EntityUtils.toString(httpEntity);
+        } catch (ParseException | IOException e) {
+            logger.error("http解析响应内容异常:" + e.getMessage(), e);
+            throw new RuntimeException("http解析响应内容异常:" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 配置和route组成的键,如 default|https://pay.example.com:443
+     */
+    private static String useRouteKey(HttpClientProfile profile, HttpUriRequest request) {
+        URI uri = request.getURI();
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+        int port = uri.getPort() > 0 ? uri.getPort() : ("https".equals(scheme) ? 443 : 80);
+        return profile.getName() + "|" + scheme + "://" + uri.getHost() + ":" + port;
+    }
+
+    private static RouteLimiter useRouteLimiter(HttpClientProfile profile, HttpUriRequest request) {
+        String key = useRouteKey(profile, request);
+        RouteLimiter limiter = routeLimiters.get(key);
+        if (limiter == null) {
+            limiter = routeLimiters.computeIfAbsent(key, k -> new RouteLimiter(profile.getMaxConcurrentPerRoute()));
+        }
+        return limiter;
+    }
+
+    /**
+     * route并发限制,未取得许可的任务入队,由释放许可的线程继续发出,不阻塞任何线程
+     * <p>
+     * 任务返回false表示未发出请求(已取消或发出失败),许可立即归还;返回true的任务完成时调用release
+     * <p>
+     * 同一时刻只有一个线程执行drain,任务中再次触发的drain只登记,由正在执行的线程循环处理,不会递归
+     */
+    private static class RouteLimiter {
+        private final int limit;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger draining = new AtomicInteger();
+        private final Queue<BooleanSupplier> waiting = new ConcurrentLinkedQueue<>();
+
+        RouteLimiter(int limit) {
+            this.limit = Math.max(limit, 1);
+        }
+
+        void submit(BooleanSupplier task) {
+            waiting.add(task);
+            drain();
+        }
+
+        void release() {
+            running.decrementAndGet();
+            drain();
+        }
+
+        private void drain() {
+            if (draining.getAndIncrement() != 0) {
+                return;
             }
+            int missed = 1;
+            do {
+                while (!waiting.isEmpty()) {
+                    int n = running.get();
+                    if (n >= limit) {
+                        break;
+                    }
+                    if (!running.compareAndSet(n, n + 1)) {
+                        continue;
+                    }
+                    BooleanSupplier task = waiting.poll();
+                    boolean started = false;
+                    try {
+                        started = task != null && task.getAsBoolean();
+                    } finally {
+                        if (!started) {
+                            running.decrementAndGet();
+                        }
+                    }
+                }
+                missed = draining.addAndGet(-missed);
+            } while (missed != 0);
         }
     }
 
@@ -380,17 +942,153 @@ public class HttpUtils {
      * @throws ClientProtocolException
      */
     public static String consumeRequest(HttpUriRequest request) {
-        HttpEntity httpEntity = null;
+        return consumeRequest(request, useProfile(request));
+    }
+
+    /**
+     * 使用指定的客户端配置执行请求,配置需已注册
+     * 
+     * @param request
+     * @param profile
+     * @return
+     */
+    public static String consumeRequest(HttpUriRequest request, HttpClientProfile profile) {
+        if (profiles.get(profile.getName()) != profile) {
+            throw new IllegalArgumentException("http客户端配置未注册:" + profile.getName());
+        }
+        return consumeResponse(request, profile, HttpUtils::toText);
+    }
+
+    /**
+     * 执行请求,响应json从输入流直接解析为对象,不生成中间字符串
+     * 
+     * @param <T>
+     * @param request
+     * @param clazz
+     * @return
+     */
+    public static <T> T consumeJSON(HttpUriRequest request, Class<T> clazz) {
+        return consumeResponse(request, useProfile(request), httpResponse -> readJSON(httpResponse,
+                in -> ValueUtils.parseJSON(in, clazz), text -> ValueUtils.parseJSON(text, clazz)));
+    }
+
+    public static <T> T consumeJSON(HttpUriRequest request, TypeReference<T> type) {
+        return consumeResponse(request, useProfile(request), httpResponse -> readJSON(httpResponse,
+                in -> ValueUtils.parseObject(in, type), text -> ValueUtils.parseObject(text, type)));
+    }
+
+    public static <T> T getJSON(String url, Class<T> clazz) {
+        return consumeJSON(new HttpGet(url), clazz);
+    }
+
+    public static <T> T getJSON(String url, Map<String, ?> data, Class<T> clazz) {
+        return consumeJSON(buildUriRequest(url, data, false), clazz);
+    }
+
+    public static <T> T postJSON(String url, String json, Class<T> clazz) {
+        return consumeJSON(buildJsonRequest(url, json, false), clazz);
+    }
+
+    public static <T> T postJSON(String url, Map<String, ?> data, Class<T> clazz) {
+        return consumeJSON(buildFormRequest(url, data, false), clazz);
+    }
+
+    /**
+     * utf编码时jackson自行识别,其他字符集先按声明的字符集读为字符串
+     */
+    private static <T> T readJSON(HttpResponse httpResponse, Function<InputStream, T> streamFn,
+            Function<String, T> textFn) {
+        HttpEntity httpEntity = httpResponse.getEntity();
+        if (httpEntity == null) {
+            return null;
+        }
         try {
-            HttpResponse httpResponse = doRequest(request);
-            httpEntity = httpResponse.getEntity();
-            return EntityUtils.toString(httpEntity);
-        } catch (ParseException e) {
-            logger.error("http解析响应内容异常:" + e.getMessage(), e);
-            throw new RuntimeException("http解析响应内容异常:" + e.getMessage(), e);
-        } catch (IOException e) {
+            ContentType contentType = ContentType.get(httpEntity);
+            Charset charset = contentType == null ? null : contentType.getCharset();
+            if (charset != null && !charset.name().toUpperCase().startsWith("UTF-")) {
+                return textFn.apply(EntityUtils.toString(httpEntity));
+            }
+            try (InputStream in = httpEntity.getContent()) {
+                return streamFn.apply(in);
+            }
+        } catch (ParseException | UnsupportedCharsetException | IOException e) {
             logger.error("http解析响应内容异常:" + e.getMessage(), e);
             throw new RuntimeException("http解析响应内容异常:" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 下载到文件,先写入同目录的.part临时文件,完成后替换目标文件
+     * 
+     * @param url
+     * @param target
+     * @return 下载的字节数
+     */
+    public static long download(String url, Path target) {
+        return download(new HttpGet(url), target);
+    }
+
+    public static long download(HttpUriRequest request, Path target) {
+        return consumeResponse(request, useProfile(request), httpResponse -> {
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode >= 300) {
+                throw new RuntimeException("http下载失败:" + statusCode + " " + request.getURI());
+            }
+            HttpEntity httpEntity = httpResponse.getEntity();
+            Path temp = target.resolveSibling(target.getFileName() + ".part");
+            try {
+                if (target.getParent() != null) {
+                    Files.createDirectories(target.getParent());
+                }
+                long size = 0;
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    if (httpEntity != null) {
+                        try (InputStream in = httpEntity.getContent()) {
+                            size = IOUtils.write(in, out, DOWNLOAD_BUFFER_SIZE);
+                        }
+                    }
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                return size;
+            } catch (IOException e) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ex) {
+                    // ignore
+                }
+                logger.error("http下载异常:" + e.getMessage(), e);
+                throw new RuntimeException("http下载异常:" + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * 执行请求并处理响应,处理完成后释放连接
+     * 
+     * @param <T>
+     * @param request
+     * @param profile
+     * @param fn
+     * @return
+     */
+    private static <T> T consumeResponse(HttpUriRequest request, HttpClientProfile profile,
+            Function<HttpResponse, T> fn) {
+        RouteGuard guard = useRouteGuard(profile, request);
+        guard.acquire(profile.getBulkheadWaitMillis());
+        long start = System.nanoTime();
+        int statusCode = -1;
+        boolean success = false;
+        HttpEntity httpEntity = null;
+        try {
+            HttpResponse httpResponse = doRequest(request, profile, guard);
+            statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (httpResponse.getEntity() != null) {
+                httpEntity = new CountingEntity(httpResponse.getEntity());
+                httpResponse.setEntity(httpEntity);
+            }
+            T result = fn.apply(httpResponse);
+            success = true;
+            return result;
         } finally {
             if (httpEntity != null) {
                 try {
@@ -399,45 +1097,486 @@ public class HttpUtils {
                     // ignore
                 }
             }
+            guard.release();
+            recordCall(request, profile, start, statusCode, success, httpEntity);
         }
     }
 
-    private static HttpResponse doRequest(HttpUriRequest request) {
-        if (request instanceof HttpRequestBase) {
-            HttpRequestBase httpRequestBase = (HttpRequestBase) request;
-            RequestConfig spec = useSpecRequestConfig(request);
-            if (spec != null) {
-                httpRequestBase.setConfig(spec);
+    /**
+     * 记录请求耗时和响应大小,超过慢请求阈值时输出日志
+     * <p>
+     * 指标http.client.requests,标签client/host/method/uri/status/outcome,uri为路径模板
+     */
+    private static void recordCall(HttpUriRequest request, HttpClientProfile profile, long start, int statusCode,
+            boolean success, HttpEntity httpEntity) {
+        long nanos = System.nanoTime() - start;
+        URI uri = request.getURI();
+        String status = statusCode > 0 ? String.valueOf(statusCode) : (success ? "UNKNOWN" : "ERROR");
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("client", profile.getName());
+        tags.put("host", String.valueOf(uri.getHost()));
+        tags.put("method", request.getMethod());
+        tags.put("uri", usePathTemplate(uri.getPath()));
+        Metrics.Recorder recorder = Metrics.recorder();
+        if (httpEntity != null) {
+            long size = httpEntity instanceof CountingEntity ? ((CountingEntity) httpEntity).getSize()
+                    : httpEntity.getContentLength();
+            if (size >= 0) {
+                recorder.recordValue("http.client.response.size", tags, size);
             }
         }
-        request.setHeader("connection", "close");
+        tags.put("status", status);
+        tags.put("outcome", useOutcome(statusCode, success));
+        recorder.recordTime("http.client.requests", tags, nanos);
+        long slowCallMillis = profile.getSlowCallMillis();
+        if (slowCallMillis > 0 && nanos >= TimeUnit.MILLISECONDS.toNanos(slowCallMillis)) {
+            logger.warn("http慢请求:{}ms {} {}://{}{} 状态:{}", TimeUnit.NANOSECONDS.toMillis(nanos),
+                    request.getMethod(), uri.getScheme(), uri.getRawAuthority(), uri.getRawPath(), status);
+        }
+    }
+
+    private static String useOutcome(int statusCode, boolean success) {
+        if (statusCode <= 0) {
+            return success ? "UNKNOWN" : "ERROR";
+        }
+        if (statusCode < 200) {
+            return "INFORMATIONAL";
+        }
+        if (statusCode < 300) {
+            return "SUCCESS";
+        }
+        if (statusCode < 400) {
+            return "REDIRECTION";
+        }
+        return statusCode < 500 ? "CLIENT_ERROR" : "SERVER_ERROR";
+    }
+
+    /**
+     * 路径模板,纯数字、uuid、订单号等标识片段替换为{id},避免指标按具体路径无限增长
+     * <p>
+     * 带扩展名的片段按扩展名前的部分判断,如 /files/20240101123456.xlsx 记为 /files/{id}.xlsx
+     * 
+     * @param path
+     * @return
+     */
+    public static String usePathTemplate(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        StringBuilder sb = new StringBuilder(path.length());
+        int from = 0;
+        while (from <= path.length()) {
+            int to = path.indexOf('/', from);
+            if (to < 0) {
+                to = path.length();
+            }
+            String segment = path.substring(from, to);
+            int dot = segment.lastIndexOf('.');
+            if (isIdSegment(segment)) {
+                sb.append("{id}");
+            } else if (dot > 0 && isIdSegment(segment.substring(0, dot))) {
+                sb.append("{id}").append(segment, dot, segment.length());
+            } else {
+                sb.append(segment);
+            }
+            if (to < path.length()) {
+                sb.append('/');
+            }
+            from = to + 1;
+        }
+        return sb.toString();
+    }
+
+    private static boolean isIdSegment(String segment) {
+        int length = segment.length();
+        if (length == 0) {
+            return false;
+        }
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            char c = segment.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (!Character.isLetter(c) && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return digits == length || (digits > 0 && length >= 16) || (length >= 8 && digits * 2 >= length);
+    }
+
+    /**
+     * 执行请求,熔断打开时直接拒绝;幂等请求遇到io异常(超时除外)或429/502/503/504时按指数退避加随机抖动重试
+     */
+    private static HttpResponse doRequest(HttpUriRequest request, HttpClientProfile profile, RouteGuard guard) {
+        int retryCount = isRetryable(request, profile) ? profile.getRetryCount() : 0;
+        for (int attempt = 0;; attempt++) {
+            if (attempt > 0) {
+                backoff(profile, attempt);
+                if (request instanceof HttpRequestBase) {
+                    ((HttpRequestBase) request).reset();
+                }
+            }
+            CircuitBreaker.Permit permit = guard.breaker.tryAcquire();
+            if (permit == null) {
+                Metrics.recorder().increment("http.client.breaker.rejected", guard.tags, 1);
+                throw new RuntimeException("http请求熔断:" + guard.host);
+            }
+            HttpResponse httpResponse;
+            try {
+                httpResponse = execute(request, profile, guard);
+            } catch (RuntimeException | Error e) {
+                // 试探请求必须归还许可,否则熔断器一直半开
+                guard.breaker.onFailure(permit);
+                throw e;
+            } catch (ConnectionPoolTimeoutException e) {
+                // 本地连接池耗尽与上游无关,不计入熔断
+                guard.breaker.release(permit);
+                logger.error("http请求异常:" + e.getMessage(), e);
+                throw new RuntimeException("http请求异常:" + e.getMessage(), e);
+            } catch (IOException e) {
+                guard.breaker.onFailure(permit);
+                if (attempt < retryCount && isRetryable(e)) {
+                    Metrics.recorder().increment("http.client.retries", guard.tags, 1);
+                    logger.warn("http请求异常,第{}次重试:{}", attempt + 1, e.getMessage());
+                    continue;
+                }
+                logger.error("http请求异常:" + e.getMessage(), e);
+                throw new RuntimeException("http请求异常:" + e.getMessage(), e);
+            }
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode == 502 || statusCode == 503 || statusCode == 504) {
+                guard.breaker.onFailure(permit);
+            } else {
+                guard.breaker.onSuccess(permit);
+            }
+            if (attempt < retryCount && RETRY_STATUS.contains(statusCode)) {
+                EntityUtils.consumeQuietly(httpResponse.getEntity());
+                Metrics.recorder().increment("http.client.retries", guard.tags, 1);
+                logger.warn("http响应{},第{}次重试:{}", statusCode, attempt + 1, request.getURI());
+                continue;
+            }
+            return httpResponse;
+        }
+    }
+
+    private static HttpResponse execute(HttpUriRequest request, HttpClientProfile profile, RouteGuard guard)
+            throws IOException {
+        if (profile.getHedgeDelayMillis() > 0 && request instanceof HttpGet) {
+            return hedge((HttpGet) request, profile, guard);
+        }
+        return useClient(profile).execute(request);
+    }
+
+    /**
+     * 对冲请求:主请求在当前线程执行,超过hedgeDelayMillis未返回时在后台发出相同请求,先返回的生效并中止另一个
+     * <p>
+     * 对冲受route的对冲预算和并发许可限制,预算或许可不足时不对冲
+     */
+    private static HttpResponse hedge(HttpGet request, HttpClientProfile profile, RouteGuard guard)
+            throws IOException {
+        CloseableHttpClient client = useClient(profile);
+        HttpGet hedge = new HttpGet(request.getURI());
+        hedge.setHeaders(request.getAllHeaders());
+        hedge.setConfig(request.getConfig());
+        AtomicBoolean launched = new AtomicBoolean();
+        AtomicBoolean decided = new AtomicBoolean();
+        CompletableFuture<HttpResponse> hedged = new CompletableFuture<>();
+        guard.depositHedge();
+        ScheduledFuture<?> timer = TimerHolder.SCHEDULER.schedule(() -> {
+            if (!guard.tryHedge()) {
+                Metrics.recorder().increment("http.client.hedges.skipped", guard.tags, 1);
+                return;
+            }
+            if (!launched.compareAndSet(false, true)) {
+                guard.cancelHedge();
+                return;
+            }
+            Metrics.recorder().increment("http.client.hedges", guard.tags, 1);
+            try {
+                HedgeHolder.EXECUTOR.execute(() -> {
+                    try {
+                        HttpResponse response = client.execute(hedge);
+                        if (decided.compareAndSet(false, true)) {
+                            Metrics.recorder().increment("http.client.hedges.won", guard.tags, 1);
+                            hedged.complete(response);
+                            request.abort();
+                        } else {
+                            hedge.abort();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        hedged.completeExceptionally(e);
+                    } finally {
+                        guard.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                guard.release();
+                hedged.completeExceptionally(e);
+            }
+        }, profile.getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+        HttpResponse response;
         try {
-            return HttpClientHolder.HTTP_CLIENT.execute(request);
-        } catch (ClientProtocolException e) {
-            logger.error("http请求异常:" + e.getMessage(), e);
-            throw new RuntimeException("http请求异常:" + e.getMessage(), e);
+            response = client.execute(request);
         } catch (IOException e) {
-            logger.error("http请求异常:" + e.getMessage(), e);
-            throw new RuntimeException("http请求异常:" + e.getMessage(), e);
+            if (launched.compareAndSet(false, true)) {
+                timer.cancel(false);
+                throw e;
+            }
+            // 对冲请求已发出,以其结果为准
+            try {
+                return hedged.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                hedge.abort();
+                throw e;
+            } catch (ExecutionException ex) {
+                e.addSuppressed(ex.getCause());
+                throw e;
+            }
+        }
+        launched.set(true);
+        timer.cancel(false);
+        if (decided.compareAndSet(false, true)) {
+            hedge.abort();
+            return response;
         }
+        EntityUtils.consumeQuietly(response.getEntity());
+        return hedged.join();
     }
 
-    private static RequestConfig useSpecRequestConfig(HttpUriRequest request) {
-        String path = request.getURI().getPath();
-        int ldi = path.lastIndexOf("/");
-        String methodUri = (ldi >= 0 ? path.substring(ldi + 1) : path);
-        String mLowerCase = methodUri.toLowerCase();
-        if (mLowerCase.contains("upload") || mLowerCase.contains("download") || mLowerCase.contains("attachment")
-                || mLowerCase.startsWith("send")) {
-            RequestConfig requestConfig = RequestConfig.custom()
-                    // 从连接池中获取连接的超时时间
-                    .setConnectionRequestTimeout(2000)
-                    // 与服务器连接超时时间：httpclient会创建一个异步线程用以创建socket连接，此处设置该socket的连接超时时间
-                    .setConnectTimeout(5000)
-                    // socket读数据超时时间：从服务器获取响应数据的超时时间
-                    .setSocketTimeout(60000).build();
-            return requestConfig;
+    private static void backoff(HttpClientProfile profile, int attempt) {
+        long max = Math.min(profile.getRetryMaxBackoffMillis(),
+                profile.getRetryBackoffMillis() << Math.min(attempt - 1, 20));
+        if (max <= 0) {
+            return;
         }
-        return null;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(max + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("http重试等待被中断", e);
+        }
+    }
+
+    private static boolean isRetryable(HttpRequest request, HttpClientProfile profile) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return false;
+            }
+        }
+        return profile.isRetryNonIdempotent()
+                || IDEMPOTENT_METHODS.contains(request.getRequestLine().getMethod().toUpperCase());
+    }
+
+    /**
+     * 超时(InterruptedIOException,含读超时、连接超时、连接池超时和中止)不重试,避免慢上游长时间占用线程和并发许可
+     */
+    private static boolean isRetryable(IOException e) {
+        return !(e instanceof InterruptedIOException || e instanceof UnknownHostException
+                || e instanceof SSLException || e instanceof ClientProtocolException);
+    }
+
+    private static RouteGuard useRouteGuard(HttpClientProfile profile, HttpUriRequest request) {
+        String key = useRouteKey(profile, request);
+        RouteGuard guard = routeGuards.get(key);
+        if (guard == null) {
+            guard = routeGuards.computeIfAbsent(key, k -> new RouteGuard(profile, request.getURI().getHost()));
+        }
+        return guard;
+    }
+
+    /**
+     * 同步请求的route隔离:并发许可(bulkhead)、熔断器和对冲预算
+     * <p>
+     * 对冲预算为令牌桶:每个可对冲的请求存入hedgeMaxPercent个令牌,每次对冲消耗100个,最多积累10次对冲,初始为满
+     */
+    private static class RouteGuard {
+        private static final int HEDGE_COST = 100;
+
+        private final String host;
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        private final Semaphore bulkhead;
+        private final CircuitBreaker breaker;
+        private final int hedgeMaxPercent;
+        private final AtomicInteger hedgeTokens = new AtomicInteger(HEDGE_COST * 10);
+
+        RouteGuard(HttpClientProfile profile, String host) {
+            this.host = host;
+            this.hedgeMaxPercent = profile.getHedgeMaxPercent();
+            this.tags.put("client", profile.getName());
+            this.tags.put("host", String.valueOf(host));
+            this.bulkhead = new Semaphore(Math.max(profile.getMaxConcurrentPerRoute(), 1));
+            this.breaker = new CircuitBreaker("http.client.breaker", tags, profile.getBreakerFailureThreshold(),
+                    profile.getBreakerOpenMillis());
+        }
+
+        void acquire(long waitMillis) {
+            boolean acquired;
+            try {
+                acquired = bulkhead.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                Metrics.recorder().increment("http.client.bulkhead.rejected", tags, 1);
+                throw new RuntimeException("http并发超限:" + host);
+            }
+        }
+
+        void release() {
+            bulkhead.release();
+        }
+
+        void depositHedge() {
+            if (hedgeMaxPercent > 0) {
+                hedgeTokens.getAndUpdate(t -> Math.min(t + hedgeMaxPercent, HEDGE_COST * 10));
+            }
+        }
+
+        /**
+         * 取得对冲令牌和并发许可,成功后需调用release
+         */
+        boolean tryHedge() {
+            int tokens;
+            do {
+                tokens = hedgeTokens.get();
+                if (tokens < HEDGE_COST) {
+                    return false;
+                }
+            } while (!hedgeTokens.compareAndSet(tokens, tokens - HEDGE_COST));
+            if (!bulkhead.tryAcquire()) {
+                hedgeTokens.addAndGet(HEDGE_COST);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 取得的对冲未发出,归还令牌和许可
+         */
+        void cancelHedge() {
+            hedgeTokens.addAndGet(HEDGE_COST);
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * 记录从连接池获取连接的等待时间和超时次数
+     */
+    private static class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+        private final String client;
+
+        MeteredConnectionManager(HttpClientProfile profile) {
+            super(profile.getTimeToLiveMillis(), TimeUnit.MILLISECONDS);
+            this.client = profile.getName();
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest connectionRequest = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit timeUnit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    Map<String, String> tags = new LinkedHashMap<>();
+                    tags.put("client", client);
+                    tags.put("host", route.getTargetHost().getHostName());
+                    long start = System.nanoTime();
+                    try {
+                        return connectionRequest.get(timeout, timeUnit);
+                    } catch (ConnectionPoolTimeoutException e) {
+                        Metrics.recorder().increment("http.client.pool.timeout", tags, 1);
+                        throw e;
+                    } finally {
+                        Metrics.recorder().recordTime("http.client.pool.lease", tags, System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return connectionRequest.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * 统计实际读取的响应字节数
+     */
+    private static class CountingEntity extends HttpEntityWrapper {
+        private long size;
+
+        CountingEntity(HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        long getSize() {
+            return Math.max(size, getContentLength());
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        size++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        size += n;
+                    }
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            super.writeTo(new FilterOutputStream(outStream) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    size++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    size += len;
+                }
+            });
+        }
+    }
+
+    /**
+     * 对冲请求计时和旧客户端关闭共用的定时线程
+     */
+    private static class TimerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "http-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class HedgeHolder {
+        /**
+         * 并发对冲数已受各route的并发许可限制,线程数再设上限,超出时放弃对冲
+         */
+        private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0,
+                Runtime.getRuntime().availableProcessors() * 4, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                    Thread thread = new Thread(r, "http-hedge");
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 }
@@ -0,0 +1,449 @@
+package com.jsls.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 并行压缩的zip流写入器
+ * <p>
+ * 1.条目在线程池中并行压缩,按添加顺序依次写入输出流,同时最多window个条目在压缩或等待写入,
+ * 且这些条目的原始数据合计不超过MAX_PENDING_BYTES(单个条目超出时独占)
+ * <p>
+ * 2.xlsx/docx/png/jpg等已压缩的文件使用STORED方式存储,压缩后不变小的条目也改为STORED
+ * <p>
+ * 3.超过LARGE_ENTRY_SIZE的文件在当前线程流式压缩,不整体读入内存
+ * <p>
+ * 4.不支持zip64,单个条目及整个zip不能超过4G,条目数不能超过65535
+ */
+public class ParallelZipWriter implements Closeable {
+    public static final int LARGE_ENTRY_SIZE = 1024 * 1024 * 16;
+    public static final long MAX_PENDING_BYTES = 1024 * 1024 * 64;
+    public static final Set<String> STORED_EXTENSIONS = new HashSet<>(Arrays.asList("zip", "gz", "rar", "7z",
+            "xlsx", "docx", "pptx", "png", "jpg", "jpeg", "gif", "mp3", "mp4"));
+    private static final int BUFFER_SIZE = 1024 * 64;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final CountingOutputStream out;
+    private final Executor executor;
+    private final int window;
+    private final int level;
+    private final Deque<Future<Entry>> pending = new ArrayDeque<>();
+    private final Deque<Integer> pendingSizes = new ArrayDeque<>();
+    private long pendingBytes;
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean failed;
+    private boolean closed;
+
+    public ParallelZipWriter(OutputStream out, Executor executor, int window) {
+        this(out, executor, window, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelZipWriter(OutputStream out, Executor executor, int window, int level) {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.executor = executor;
+        this.window = Math.max(window, 1);
+        this.level = level;
+    }
+
+    /**
+     * 添加文件条目
+     *
+     * @param file
+     * @param name 条目名
+     * @throws IOException
+     */
+    public void addFile(File file, String name) throws IOException {
+        if (file.length() > LARGE_ENTRY_SIZE) {
+            drain(0);
+            run(() -> writeLargeFile(file, name));
+            return;
+        }
+        submit((int) file.length(), () -> compress(name, Files.readAllBytes(file.toPath()), file.lastModified()));
+    }
+
+    /**
+     * 添加数据条目
+     *
+     * @param name
+     * @param data
+     * @throws IOException
+     */
+    public void addEntry(String name, byte[] data) throws IOException {
+        long time = System.currentTimeMillis();
+        submit(data.length, () -> compress(name, data, time));
+    }
+
+    /**
+     * 添加目录条目
+     *
+     * @param name 以/结尾
+     * @throws IOException
+     */
+    public void addDirectory(String name) throws IOException {
+        Entry entry = new Entry(name.endsWith("/") ? name : name + "/", System.currentTimeMillis());
+        entry.method = METHOD_STORED;
+        entry.data = new byte[0];
+        submit(0, () -> entry);
+    }
+
+    /**
+     * 写出所有条目和中央目录,并关闭输出流
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (failed) {
+                for (Future<Entry> future : pending) {
+                    future.cancel(true);
+                }
+                return;
+            }
+            drain(0);
+            writeCentralDirectory();
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param size     条目原始数据大小,计入在途字节数
+     * @param callable
+     * @throws IOException
+     */
+    private void submit(int size, IOCallable<Entry> callable) throws IOException {
+        if (closed) {
+            throw new IOException("zip已关闭");
+        }
+        // 先写出前面的条目,腾出字节额度
+        while (!pending.isEmpty() && pendingBytes + size > MAX_PENDING_BYTES) {
+            writeNext();
+        }
+        FutureTask<Entry> task = new FutureTask<>(callable::call);
+        run(() -> executor.execute(task));
+        pending.add(task);
+        pendingSizes.add(size);
+        pendingBytes += size;
+        drain(window - 1);
+    }
+
+    private void drain(int remain) throws IOException {
+        while (pending.size() > remain) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<Entry> future = pending.poll();
+        pendingBytes -= pendingSizes.poll();
+        run(() -> writeEntry(await(future)));
+    }
+
+    private void run(IORunnable runnable) throws IOException {
+        try {
+            runnable.run();
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    private Entry await(Future<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("压缩中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("压缩失败:" + cause.getMessage(), cause);
+        }
+    }
+
+    private Entry compress(String name, byte[] raw, long time) {
+        Entry entry = new Entry(name, time);
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        entry.crc = crc.getValue();
+        entry.size = raw.length;
+        entry.method = METHOD_STORED;
+        entry.data = raw;
+        if (isStored(name) || raw.length == 0) {
+            return entry;
+        }
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buf = new byte[Math.min(raw.length + 64, BUFFER_SIZE)];
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 2 + 64);
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                bos.write(buf, 0, n);
+                if (bos.size() >= raw.length) {
+                    return entry;
+                }
+            }
+            entry.method = METHOD_DEFLATED;
+            entry.data = bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+        return entry;
+    }
+
+    private void writeEntry(Entry entry) throws IOException {
+        entry.compressedSize = entry.data.length;
+        writeLocalHeader(entry);
+        out.write(entry.data);
+        entry.data = null;
+        entries.add(entry);
+    }
+
+    private void writeLargeFile(File file, String name) throws IOException {
+        Entry entry = new Entry(name, file.lastModified());
+        byte[] buf = new byte[BUFFER_SIZE];
+        if (isStored(name)) {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            try (InputStream in = new FileInputStream(file)) {
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    crc.update(buf, 0, n);
+                    size += n;
+                }
+            }
+            entry.method = METHOD_STORED;
+            entry.crc = crc.getValue();
+            entry.size = size;
+            entry.compressedSize = size;
+            writeLocalHeader(entry);
+            long written = 0;
+            try (InputStream in = new FileInputStream(file)) {
+                int n;
+                while (written < size && (n = in.read(buf, 0, (int) Math.min(buf.length, size - written))) != -1) {
+                    out.write(buf, 0, n);
+                    written += n;
+                }
+            }
+            if (written != size) {
+                throw new IOException(name + " 文件在压缩过程中被修改");
+            }
+            entries.add(entry);
+            return;
+        }
+        entry.method = METHOD_DEFLATED;
+        entry.flag |= FLAG_DATA_DESCRIPTOR;
+        writeLocalHeader(entry);
+        long start = out.count;
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        byte[] deflated = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                crc.update(buf, 0, n);
+                deflater.setInput(buf, 0, n);
+                while (!deflater.needsInput()) {
+                    out.write(deflated, 0, deflater.deflate(deflated));
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                out.write(deflated, 0, deflater.deflate(deflated));
+            }
+            entry.crc = crc.getValue();
+            entry.size = deflater.getBytesRead();
+            entry.compressedSize = out.count - start;
+        } finally {
+            deflater.end();
+        }
+        checkSize(entry.size);
+        checkSize(entry.compressedSize);
+        writeInt(0x08074b50L);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        entries.add(entry);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        checkSize(entry.size);
+        checkSize(entry.compressedSize);
+        entry.offset = out.count;
+        checkSize(entry.offset);
+        boolean descriptor = (entry.flag & FLAG_DATA_DESCRIPTOR) != 0;
+        writeInt(0x04034b50L);
+        writeShort(20);
+        writeShort(entry.flag);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(descriptor ? 0 : entry.crc);
+        writeInt(descriptor ? 0 : entry.compressedSize);
+        writeInt(descriptor ? 0 : entry.size);
+        writeShort(entry.name.length);
+        writeShort(0);
+        out.write(entry.name);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        if (entries.size() > 0xFFFF) {
+            throw new IOException("zip条目数超过65535,不支持zip64");
+        }
+        long start = out.count;
+        for (Entry entry : entries) {
+            writeInt(0x02014b50L);
+            writeShort(20);
+            writeShort(20);
+            writeShort(entry.flag);
+            writeShort(entry.method);
+            writeInt(entry.dosTime);
+            writeInt(entry.crc);
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+            writeShort(entry.name.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(entry.offset);
+            out.write(entry.name);
+        }
+        long end = out.count;
+        checkSize(end);
+        writeInt(0x06054b50L);
+        writeShort(0);
+        writeShort(0);
+        writeShort(entries.size());
+        writeShort(entries.size());
+        writeInt(end - start);
+        writeInt(start);
+        writeShort(0);
+    }
+
+    private void checkSize(long size) throws IOException {
+        if (size >= MAX_SIZE) {
+            throw new IOException("zip文件超过4G,不支持zip64");
+        }
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xffff));
+        writeShort((int) ((v >>> 16) & 0xffff));
+    }
+
+    public static boolean isStored(String name) {
+        int ldi = name.lastIndexOf('.');
+        return ldi >= 0 && STORED_EXTENSIONS.contains(name.substring(ldi + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static long toDosTime(long millis) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(millis);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+                | (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+                | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    private static class Entry {
+        private final byte[] name;
+        private final long dosTime;
+        private int flag = FLAG_UTF8;
+        private int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+        private byte[] data;
+
+        private Entry(String name, long time) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.dosTime = toDosTime(time);
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOCallable<V> {
+        V call() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+}
@@ -4,6 +4,8 @@ import java.awt.FontMetrics;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.swing.JLabel;
 
@@ -26,55 +28,117 @@ import com.itextpdf.text.pdf.PdfGState;
 import com.itextpdf.text.pdf.PdfPageEvent;
 import com.itextpdf.text.pdf.PdfWriter;
 import com.itextpdf.tool.xml.XMLWorkerHelper;
+import com.jsls.core.Metrics;
 import com.jsls.core.WaterMark;
 
 public class PdfUtils {
 	private static final Logger logger = LoggerFactory.getLogger(RenderUtils.class);
+	private static final String[] FONTS = { "font/msyh.ttf", "font/simhei.ttf" };
+	private static final Metrics.Timer renderTimer = Metrics.timer("pdf.render");
+	private static final Metrics.Counter renderFail = Metrics.counter("pdf.render.fail");
+	private static final Metrics.Counter rendererCreated = Metrics.counter("pdf.renderer.created");
+	/**
+	 * 空闲的已加载字体的渲染器,数量不超过cpu核数,超出的渲染器用完即丢弃
+	 */
+	private static final BlockingQueue<ITextRenderer> rendererPool = new ArrayBlockingQueue<>(
+			Runtime.getRuntime().availableProcessors());
+	private static final String EMPTY_HTML = "<html><head></head><body></body></html>";
+	static {
+		System.setProperty("sun.java2d.cmm", "sun.java2d.cmm.kcms.KcmsServiceProvider");
+	}
 
 	public static void transformPdf(String html, OutputStream os, WaterMark waterMark, String password) {
 		transformPdf(html, os, waterMark.getText(), password);
 	}
 
+	/**
+	 * html转pdf
+	 * <p>
+	 * 1.从有界池中取出已加载字体的ITextRenderer,字体描述和缓存的样式表在同一渲染器内复用,池空时新建
+	 * <p>
+	 * 2.渲染完成后换入空文档再放回池中,不保留上一个文档的DOM和布局;渲染失败的渲染器直接丢弃
+	 * <p>
+	 * 3.耗时记录在Metrics的pdf.render中,失败数记录在pdf.render.fail中
+	 * 
+	 * @param html
+	 * @param os
+	 * @param waterMarkName
+	 * @param password
+	 */
 	public static void transformPdf(String html, OutputStream os, String waterMarkName, String password) {
-		System.setProperty("sun.java2d.cmm", "sun.java2d.cmm.kcms.KcmsServiceProvider");
+		ITextRenderer renderer = rendererPool.poll();
+		if (renderer == null) {
+			renderer = newRenderer();
+		}
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			renderer.setDocumentFromString(html);
+			renderer.setPDFEncryption(null);
+			if (StringUtils.hasText(password)) {
+				setPDFEncryption(password, password, renderer);
+			}
+			renderer.layout();
+			try {
+				renderer.createPDF(os, false);
+			} catch (DocumentException e) {
+				logger.error("导出pdf失败：" + e.getMessage(), e);
+				throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
+			} catch (IOException e) {
+				logger.error("导出pdf失败：" + e.getMessage(), e);
+				throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
+			}
+			if (StringUtils.hasText(waterMarkName)) {
+				try {
+					waterMark(renderer.getWriter(), waterMarkName);
+				} catch (IOException e) {
+					logger.error("添加水印异常：" + e.getMessage(), e);
+					throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
+				} catch (DocumentException e) {
+					logger.error("添加水印异常：" + e.getMessage(), e);
+					throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
+				}
+			}
+			renderer.finishPDF();
+			success = true;
+		} finally {
+			renderTimer.recordSince(start);
+			if (success) {
+				release(renderer);
+			} else {
+				renderFail.increment();
+			}
+		}
+	}
+
+	/**
+	 * 换入空文档释放上一个文档后放回池中
+	 */
+	private static void release(ITextRenderer renderer) {
+		try {
+			renderer.setDocumentFromString(EMPTY_HTML);
+			renderer.layout();
+		} catch (RuntimeException e) {
+			logger.warn("重置pdf渲染器失败：" + e.getMessage(), e);
+			return;
+		}
+		rendererPool.offer(renderer);
+	}
+
+	private static ITextRenderer newRenderer() {
 		ITextRenderer renderer = new ITextRenderer();
 		ITextFontResolver fontResolver = renderer.getFontResolver();
 		try {
-			fontResolver.addFont("font/msyh.ttf", BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED);
-			fontResolver.addFont("font/simhei.ttf", BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED);
+			for (String font : FONTS) {
+				fontResolver.addFont(font, BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED);
+			}
 		} catch (DocumentException e) {
 			logger.error("应用自定义字体异常：" + e.getMessage(), e);
-			logger.error("导出pdf失败：" + e.getMessage(), e);
 		} catch (IOException e) {
 			logger.error("应用自定义字体异常：" + e.getMessage(), e);
-			logger.error("导出pdf失败：" + e.getMessage(), e);
-		}
-		renderer.setDocumentFromString(html);
-		if (StringUtils.hasText(password)) {
-			setPDFEncryption(password, password, renderer);
-		}
-		renderer.layout();
-		try {
-			renderer.createPDF(os, false);
-		} catch (DocumentException e) {
-			logger.error("导出pdf失败：" + e.getMessage(), e);
-			throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
-		} catch (IOException e) {
-			logger.error("导出pdf失败：" + e.getMessage(), e);
-			throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
-		}
-		if (StringUtils.hasText(waterMarkName)) {
-			try {
-				waterMark(renderer.getWriter(), waterMarkName);
-			} catch (IOException e) {
-				logger.error("添加水印异常：" + e.getMessage(), e);
-				throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
-			} catch (DocumentException e) {
-				logger.error("添加水印异常：" + e.getMessage(), e);
-				throw new RuntimeException("导出pdf失败：" + e.getMessage(), e);
-			}
 		}
-		renderer.finishPDF();
+		rendererCreated.increment();
+		return renderer;
 	}
 
 	private static void setPDFEncryption(String password, String adminPassword, ITextRenderer render) {
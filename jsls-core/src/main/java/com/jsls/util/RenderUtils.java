@@ -11,10 +11,17 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.ClassUtils;
+import org.thymeleaf.cache.ICache;
+import org.thymeleaf.cache.StandardCache;
+import org.thymeleaf.cache.StandardCacheManager;
 import org.thymeleaf.context.Context;
 import org.thymeleaf.spring5.SpringTemplateEngine;
 import org.thymeleaf.spring5.templateresolver.SpringResourceTemplateResolver;
 
+import com.jsls.core.Metrics;
+
+import freemarker.cache.CacheStorageWithGetSize;
+import freemarker.cache.MruCacheStorage;
 import freemarker.core.ParseException;
 import freemarker.template.Configuration;
 import freemarker.template.MalformedTemplateNameException;
@@ -22,21 +29,66 @@ import freemarker.template.Template;
 import freemarker.template.TemplateException;
 import freemarker.template.TemplateNotFoundException;
 
+/**
+ * 模板渲染
+ * <p>
+ * 1.freemarker与thymeleaf引擎全局单例,编译后的模板按容量缓存,重复渲染同一模板只需执行模型求值
+ * <p>
+ * 2.开发环境可开启热加载(配置jsls.render.hot-reload=true或调用setHotReload),每次渲染检查模板是否修改
+ * <p>
+ * 3.渲染耗时及缓存命中情况记录在Metrics中,指标名以render.开头
+ */
 public class RenderUtils {
     private static final Logger logger = LoggerFactory.getLogger(RenderUtils.class);
+    public static final int DEFAULT_CACHE_SIZE = 200;
+    private static final Metrics.Timer freeMarkerTimer = Metrics.timer("render.freemarker");
+    private static final Metrics.Timer thymeleafTimer = Metrics.timer("render.thymeleaf");
+    private static final Metrics.Counter freeMarkerHit = Metrics.counter("render.freemarker.hit");
+    private static final Metrics.Counter freeMarkerMiss = Metrics.counter("render.freemarker.miss");
+
+    private static volatile Boolean hotReload;
+    private static volatile int cacheSize = DEFAULT_CACHE_SIZE;
+    private static volatile Configuration freeMarkerConfiguration;
+    private static volatile SpringTemplateEngine thymeleafEngine;
+
+    /**
+     * 设置是否热加载模板,重建引擎
+     * 
+     * @param hotReload
+     */
+    public static synchronized void setHotReload(boolean hotReload) {
+        RenderUtils.hotReload = hotReload;
+        reset();
+    }
+
+    /**
+     * 设置编译模板缓存容量,重建引擎
+     * 
+     * @param cacheSize
+     */
+    public static synchronized void setCacheSize(int cacheSize) {
+        RenderUtils.cacheSize = cacheSize;
+        reset();
+    }
+
+    /**
+     * 清空模板缓存
+     */
+    public static synchronized void reset() {
+        freeMarkerConfiguration = null;
+        thymeleafEngine = null;
+    }
 
     public static String thymeleafRender(Map<String, Object> variables, String templateName) {
-        SpringResourceTemplateResolver springResourceTemplateResolver = new SpringResourceTemplateResolver();
-        springResourceTemplateResolver.setPrefix("/");
-        springResourceTemplateResolver.setSuffix(".html");
-        springResourceTemplateResolver.setTemplateMode("HTML");
-        springResourceTemplateResolver.setCacheable(false);
-        springResourceTemplateResolver.setCharacterEncoding("UTF-8");
-        SpringTemplateEngine springTemplateEngine = new SpringTemplateEngine();
-        springTemplateEngine.setTemplateResolver(springResourceTemplateResolver);
+        SpringTemplateEngine springTemplateEngine = useThymeleafEngine();
         Context context = new Context();
         context.setVariables(variables);
-        return springTemplateEngine.process(templateName, context);
+        long start = System.nanoTime();
+        try {
+            return springTemplateEngine.process(templateName, context);
+        } finally {
+            thymeleafTimer.recordSince(start);
+        }
     }
 
     public static String freeMarkerRender(Object model, String templateName) {
@@ -50,10 +102,80 @@ public class RenderUtils {
         freeMarkerRender(model, templateName, out);
     }
 
+    /**
+     * 取热加载设置,需持有RenderUtils.class锁调用
+     * <p>
+     * Spring上下文注入前读不到配置,返回null且不缓存,此时建立的引擎按不热加载处理且不缓存
+     * 
+     * @return
+     */
+    private static Boolean resolveHotReload() {
+        Boolean reload = hotReload;
+        if (reload == null && SpringContextHolder.isInjected()) {
+            reload = SpringContextHolder.getProperties("jsls.render.hot-reload", false, Boolean.class);
+            hotReload = reload = Boolean.TRUE.equals(reload);
+        }
+        return reload;
+    }
+
+    private static Configuration useFreeMarkerConfiguration() {
+        Configuration configuration = freeMarkerConfiguration;
+        if (configuration == null) {
+            synchronized (RenderUtils.class) {
+                configuration = freeMarkerConfiguration;
+                if (configuration == null) {
+                    Boolean reload = resolveHotReload();
+                    configuration = new Configuration(Configuration.VERSION_2_3_31);
+                    configuration.setDefaultEncoding("utf-8");
+                    configuration.setClassLoaderForTemplateLoading(ClassUtils.getDefaultClassLoader(), "/templates");
+                    configuration.setCacheStorage(new CountingCacheStorage(new MruCacheStorage(cacheSize, cacheSize)));
+                    configuration.setTemplateUpdateDelayMilliseconds(Boolean.TRUE.equals(reload) ? 0 : Long.MAX_VALUE);
+                    if (reload != null) {
+                        freeMarkerConfiguration = configuration;
+                    }
+                }
+            }
+        }
+        return configuration;
+    }
+
+    private static SpringTemplateEngine useThymeleafEngine() {
+        SpringTemplateEngine engine = thymeleafEngine;
+        if (engine == null) {
+            synchronized (RenderUtils.class) {
+                engine = thymeleafEngine;
+                if (engine == null) {
+                    Boolean reload = resolveHotReload();
+                    SpringResourceTemplateResolver springResourceTemplateResolver = new SpringResourceTemplateResolver();
+                    springResourceTemplateResolver.setPrefix("/");
+                    springResourceTemplateResolver.setSuffix(".html");
+                    springResourceTemplateResolver.setTemplateMode("HTML");
+                    springResourceTemplateResolver.setCacheable(!Boolean.TRUE.equals(reload));
+                    springResourceTemplateResolver.setCharacterEncoding("UTF-8");
+                    StandardCacheManager cacheManager = new StandardCacheManager();
+                    cacheManager.setTemplateCacheMaxSize(cacheSize);
+                    cacheManager.setTemplateCacheEnableCounters(true);
+                    engine = new SpringTemplateEngine();
+                    engine.setTemplateResolver(springResourceTemplateResolver);
+                    engine.setCacheManager(cacheManager);
+                    ICache<?, ?> templateCache = cacheManager.getTemplateCache();
+                    if (reload != null) {
+                        if (templateCache instanceof StandardCache) {
+                            StandardCache<?, ?> cache = (StandardCache<?, ?>) templateCache;
+                            Metrics.gauge("render.thymeleaf.hit", cache::getHitCount);
+                            Metrics.gauge("render.thymeleaf.miss", cache::getMissCount);
+                        }
+                        thymeleafEngine = engine;
+                    }
+                }
+            }
+        }
+        return engine;
+    }
+
     private static void freeMarkerRender(Object model, String templateName, Writer out) {
-        Configuration configuration = new Configuration(Configuration.VERSION_2_3_31);
-        configuration.setDefaultEncoding("utf-8");
-        configuration.setClassLoaderForTemplateLoading(ClassUtils.getDefaultClassLoader(), "/templates");
+        Configuration configuration = useFreeMarkerConfiguration();
+        long start = System.nanoTime();
         Template template;
         try {
             template = configuration.getTemplate(templateName);
@@ -74,8 +196,51 @@ public class RenderUtils {
             logger.error("渲染模板失败：" + e.getMessage(), e);
             throw new RuntimeException("渲染模板失败：" + e.getMessage(), e);
         } finally {
+            freeMarkerTimer.recordSince(start);
             IOUtils.closeQuietly(out);
         }
 
     }
+
+    /**
+     * 统计freemarker模板缓存命中情况
+     */
+    private static class CountingCacheStorage implements CacheStorageWithGetSize {
+        private final MruCacheStorage storage;
+
+        CountingCacheStorage(MruCacheStorage storage) {
+            this.storage = storage;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Object value = storage.get(key);
+            if (value == null) {
+                freeMarkerMiss.increment();
+            } else {
+                freeMarkerHit.increment();
+            }
+            return value;
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            storage.put(key, value);
+        }
+
+        @Override
+        public void remove(Object key) {
+            storage.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            storage.clear();
+        }
+
+        @Override
+        public int getSize() {
+            return storage.getSize();
+        }
+    }
 }
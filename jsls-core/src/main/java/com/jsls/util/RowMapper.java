@@ -0,0 +1,246 @@
+package com.jsls.util;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.NumberUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import com.jsls.core.Importable.Position;
+import com.jsls.core.Pair;
+
+/**
+ * 行数据到bean的映射器,每个表头布局生成一次,setter和类型转换按类缓存
+ * <p>
+ * 1.setter通过MethodHandle调用,每列的类型转换在生成时确定
+ * <p>
+ * 2.字符串保持原值,数值按NumberUtils严格转换,与BeanWrapperImpl的默认转换一致;日期列支持日期文本和Excel日期数值
+ * <p>
+ * 3.嵌套属性(如a.b)仍通过BeanWrapperImpl设置
+ *
+ * @param <B>
+ */
+public class RowMapper<B> {
+    private static final Map<Class<?>, MappedClass> classCache = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Function<Object, Object>> converterCache = new ConcurrentHashMap<>();
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Class<B> clazz;
+    private final MethodHandle constructor;
+    private final MethodHandle[] setters;
+    private final Function<Object, Object>[] converters;
+    private final boolean[] primitives;
+    private final String[] nestedProperties;
+
+    @SuppressWarnings("unchecked")
+    private RowMapper(Class<B> clazz, Map<Integer, String> propertyMap) {
+        MappedClass mappedClass = classCache.computeIfAbsent(clazz, MappedClass::new);
+        this.clazz = clazz;
+        this.constructor = mappedClass.constructor;
+        int length = 0;
+        for (Integer cellIndex : propertyMap.keySet()) {
+            length = Math.max(length, cellIndex + 1);
+        }
+        this.setters = new MethodHandle[length];
+        this.converters = new Function[length];
+        this.primitives = new boolean[length];
+        this.nestedProperties = new String[length];
+        for (Map.Entry<Integer, String> entry : propertyMap.entrySet()) {
+            int cellIndex = entry.getKey();
+            String property = entry.getValue();
+            PropertySetter propertySetter = mappedClass.useSetter(property);
+            if (propertySetter == null) {
+                nestedProperties[cellIndex] = property;
+                continue;
+            }
+            setters[cellIndex] = propertySetter.setter;
+            converters[cellIndex] = propertySetter.converter;
+            primitives[cellIndex] = propertySetter.primitive;
+        }
+    }
+
+    /**
+     * 获取表头布局对应的映射器,同一布局的多行应复用同一个映射器
+     *
+     * @param <B>
+     * @param clazz
+     * @param propertyMap 列下标到属性名
+     * @return
+     */
+    public static <B> RowMapper<B> of(Class<B> clazz, Map<Integer, String> propertyMap) {
+        return new RowMapper<>(clazz, propertyMap);
+    }
+
+    /**
+     * 映射一行数据
+     *
+     * @param rowData
+     * @return
+     */
+    public Pair<Position, B> map(Pair<Position, List<Object>> rowData) {
+        B bean = newInstance();
+        BeanWrapperImpl beanWrapper = null;
+        int cellIndex = rowData.getV1().getCellIndex();
+        for (Object value : rowData.getV2()) {
+            if (cellIndex >= setters.length) {
+                break;
+            }
+            MethodHandle setter = setters[cellIndex];
+            if (setter != null) {
+                Object propertyValue = value == null ? null : converters[cellIndex].apply(value);
+                if (propertyValue != null || !primitives[cellIndex]) {
+                    invoke(setter, bean, propertyValue);
+                }
+            } else if (nestedProperties[cellIndex] != null) {
+                if (beanWrapper == null) {
+                    beanWrapper = new BeanWrapperImpl(bean);
+                    beanWrapper.setAutoGrowNestedPaths(true);
+                }
+                beanWrapper.setPropertyValue(nestedProperties[cellIndex], value);
+            }
+            cellIndex++;
+        }
+        return new Pair<Position, B>(rowData.getV1(), bean);
+    }
+
+    @SuppressWarnings("unchecked")
+    private B newInstance() {
+        if (constructor == null) {
+            return BeanUtils.instantiateClass(clazz);
+        }
+        try {
+            Object bean = constructor.invokeExact();
+            return (B) bean;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("创建" + clazz.getName() + "失败:" + e.getMessage(), e);
+        }
+    }
+
+    private static void invoke(MethodHandle setter, Object bean, Object value) {
+        try {
+            setter.invokeExact(bean, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
+    private static MethodHandle useConstructor(Class<?> clazz) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(clazz, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 获取属性类型对应的转换器,规则同BeanWrapperImpl的默认转换,日期额外支持文本和Excel日期数值
+     *
+     * @param type
+     * @return
+     */
+    public static Function<Object, Object> useConverter(Class<?> type) {
+        return converterCache.computeIfAbsent(ClassUtils.resolvePrimitiveIfNecessary(type), RowMapper::newConverter);
+    }
+
+    private static Function<Object, Object> newConverter(Class<?> type) {
+        if (String.class.equals(type)) {
+            return value -> value instanceof String ? value : value.toString();
+        }
+        if (Number.class.isAssignableFrom(type)) {
+            @SuppressWarnings("unchecked")
+            Class<? extends Number> numberType = (Class<? extends Number>) type;
+            return value -> {
+                if (type.isInstance(value)) {
+                    return value;
+                }
+                if (value instanceof Number) {
+                    return NumberUtils.convertNumberToTargetClass((Number) value, numberType);
+                }
+                String text = value.toString();
+                return StringUtils.hasText(text) ? NumberUtils.parseNumber(text, numberType) : null;
+            };
+        }
+        if (Date.class.equals(type)) {
+            return value -> {
+                if (value instanceof Date) {
+                    return value;
+                }
+                if (value instanceof Number) {
+                    return DateUtil.getJavaDate(((Number) value).doubleValue());
+                }
+                String text = value.toString().trim();
+                return StringUtils.hasText(text) ? DateUtils.smartParseDate(text) : null;
+            };
+        }
+        ConversionService conversionService = DefaultConversionService.getSharedInstance();
+        return value -> type.isInstance(value) ? value : conversionService.convert(value, type);
+    }
+
+    /**
+     * 类的构造器和已解析的setter,属性名只缓存能解析到setter的
+     */
+    private static class MappedClass {
+        private final MethodHandle constructor;
+        private final Map<String, PropertySetter> setters = new ConcurrentHashMap<>();
+        private final Class<?> clazz;
+
+        private MappedClass(Class<?> clazz) {
+            this.clazz = clazz;
+            this.constructor = useConstructor(clazz);
+        }
+
+        private PropertySetter useSetter(String property) {
+            PropertySetter propertySetter = setters.get(property);
+            if (propertySetter != null || property.contains(".") || property.contains("[")) {
+                return propertySetter;
+            }
+            PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(clazz, property);
+            Method writeMethod = pd == null ? null : pd.getWriteMethod();
+            if (writeMethod == null) {
+                return null;
+            }
+            try {
+                ReflectionUtils.makeAccessible(writeMethod);
+                MethodHandle setter = MethodHandles.lookup().unreflect(writeMethod).asType(SETTER_TYPE);
+                propertySetter = new PropertySetter(setter, useConverter(pd.getPropertyType()),
+                        pd.getPropertyType().isPrimitive());
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+            setters.put(property, propertySetter);
+            return propertySetter;
+        }
+    }
+
+    private static class PropertySetter {
+        private final MethodHandle setter;
+        private final Function<Object, Object> converter;
+        private final boolean primitive;
+
+        private PropertySetter(MethodHandle setter, Function<Object, Object> converter, boolean primitive) {
+            this.setter = setter;
+            this.converter = converter;
+            this.primitive = primitive;
+        }
+    }
+}
@@ -54,6 +54,15 @@ public class SpringContextHolder implements ApplicationContextAware, DisposableB
         return value;
     }
 
+    /**
+     * ApplicationContext是否已注入
+     *
+     * @return
+     */
+    public static boolean isInjected() {
+        return applicationContext != null;
+    }
+
     public static void publishEvent(ApplicationEvent event) {
         SpringContextHolder.applicationContext.publishEvent(event);
     }
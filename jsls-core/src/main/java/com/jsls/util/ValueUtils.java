@@ -1,9 +1,13 @@
 package com.jsls.util;
 
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
@@ -19,6 +23,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -38,10 +43,13 @@ import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
 import com.fasterxml.jackson.datatype.jsr310.ser.LocalDateTimeSerializer;
@@ -787,22 +795,57 @@ public class ValueUtils {
         return arg.toString();
     }
 
+    /**
+     * 共享的ObjectMapper,线程安全,请勿再修改其配置
+     * 
+     * @return
+     */
+    public static ObjectMapper useObjectMapper() {
+        return JsonHolder.MAPPER;
+    }
+
+    public static ObjectWriter useObjectWriter() {
+        return JsonHolder.WRITER;
+    }
+
+    public static ObjectReader useObjectReader(Class<?> clazz) {
+        return JsonHolder.useReader(clazz);
+    }
+
+    public static ObjectReader useObjectReader(TypeReference<?> type) {
+        return JsonHolder.useReader(type.getType());
+    }
+
     public static String toJSONString(Object bean) {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.setSerializationInclusion(Include.NON_NULL);
-        SimpleModule simpleModule = new SimpleModule();
-        simpleModule.addSerializer(LocalDateTime.class,
-                new LocalDateTimeSerializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
-        simpleModule.addDeserializer(LocalDateTime.class,
-                new LocalDateTimeDeserializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
-        mapper.registerModule(simpleModule);
         try {
-            return mapper.writeValueAsString(bean);
+            return JsonHolder.WRITER.writeValueAsString(bean);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("json系列化解析异常：" + e.getMessage());
+        }
+    }
+
+    public static byte[] toJSONBytes(Object bean) {
+        try {
+            return JsonHolder.WRITER.writeValueAsBytes(bean);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("json系列化解析异常：" + e.getMessage());
         }
     }
 
+    /**
+     * json 系列化直接写入输出流(UTF-8),不关闭输出流
+     * 
+     * @param bean
+     * @param out
+     */
+    public static void writeJSON(Object bean, OutputStream out) {
+        try {
+            JsonHolder.WRITER.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(out, bean);
+        } catch (IOException e) {
+            throw new RuntimeException("json系列化解析异常：" + e.getMessage());
+        }
+    }
+
     /**
      * json 反系列化
      * <p>
@@ -816,39 +859,93 @@ public class ValueUtils {
      * @return
      */
     public static <T> T parseObject(String json, TypeReference<T> type) {
-        ObjectMapper mapper = new ObjectMapper();
-        SimpleModule simpleModule = new SimpleModule();
-        simpleModule.addSerializer(LocalDateTime.class,
-                new LocalDateTimeSerializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
-        simpleModule.addDeserializer(LocalDateTime.class,
-                new LocalDateTimeDeserializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
-        mapper.registerModule(simpleModule);
         try {
-            return mapper.readValue(json, type);
-        } catch (JsonMappingException e) {
-            throw new RuntimeException("json反系列化解析异常：" + e.getMessage());
+            return useObjectReader(type).readValue(json);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("json反系列化解析异常：" + e.getMessage());
         }
     }
 
-    public static <T> T parseJSON(String json, Class<T> clazz) {
-        ObjectMapper mapper = new ObjectMapper();
-        SimpleModule simpleModule = new SimpleModule();
-        simpleModule.addSerializer(LocalDateTime.class,
-                new LocalDateTimeSerializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
-        simpleModule.addDeserializer(LocalDateTime.class,
-                new LocalDateTimeDeserializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
-        mapper.registerModule(simpleModule);
+    public static <T> T parseObject(byte[] json, TypeReference<T> type) {
         try {
-            return mapper.readValue(json, clazz);
-        } catch (JsonMappingException e) {
+            return useObjectReader(type).readValue(json);
+        } catch (IOException e) {
             throw new RuntimeException("json反系列化解析异常：" + e.getMessage());
+        }
+    }
+
+    /**
+     * json 反系列化,不关闭输入流
+     * 
+     * @param <T>
+     * @param in
+     * @param type
+     * @return
+     */
+    public static <T> T parseObject(InputStream in, TypeReference<T> type) {
+        try {
+            return useObjectReader(type).without(JsonParser.Feature.AUTO_CLOSE_SOURCE).readValue(in);
+        } catch (IOException e) {
+            throw new RuntimeException("json反系列化解析异常：" + e.getMessage());
+        }
+    }
+
+    public static <T> T parseJSON(String json, Class<T> clazz) {
+        try {
+            return useObjectReader(clazz).readValue(json);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("json反系列化解析异常：" + e.getMessage());
         }
     }
 
+    public static <T> T parseJSON(byte[] json, Class<T> clazz) {
+        try {
+            return useObjectReader(clazz).readValue(json);
+        } catch (IOException e) {
+            throw new RuntimeException("json反系列化解析异常：" + e.getMessage());
+        }
+    }
+
+    public static <T> T parseJSON(InputStream in, Class<T> clazz) {
+        try {
+            return useObjectReader(clazz).without(JsonParser.Feature.AUTO_CLOSE_SOURCE).readValue(in);
+        } catch (IOException e) {
+            throw new RuntimeException("json反系列化解析异常：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 共享json配置
+     * <p>
+     * ObjectMapper配置完成后线程安全,ObjectReader/ObjectWriter不可变,按类型缓存复用
+     */
+    private static class JsonHolder {
+        private static final ObjectMapper MAPPER = newObjectMapper();
+        private static final ObjectWriter WRITER = MAPPER.writer();
+        private static final Map<Type, ObjectReader> readerCache = new ConcurrentHashMap<>();
+
+        private static ObjectMapper newObjectMapper() {
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.setSerializationInclusion(Include.NON_NULL);
+            SimpleModule simpleModule = new SimpleModule();
+            simpleModule.addSerializer(LocalDateTime.class,
+                    new LocalDateTimeSerializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
+            simpleModule.addDeserializer(LocalDateTime.class,
+                    new LocalDateTimeDeserializer(DateTimeFormatter.ofPattern(DateUtils.DATE_FORMAT_DATETIME)));
+            mapper.registerModule(simpleModule);
+            return mapper;
+        }
+
+        private static ObjectReader useReader(Type type) {
+            ObjectReader reader = readerCache.get(type);
+            if (reader == null) {
+                reader = readerCache.computeIfAbsent(type,
+                        k -> MAPPER.readerFor(MAPPER.getTypeFactory().constructType(k)));
+            }
+            return reader;
+        }
+    }
+
     public static String rightPad(String text, String pad, int ln) {
         String use = StringUtils.hasText(text) ? text : "";
         for (;;) {
@@ -3,17 +3,39 @@ package com.jsls.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.URLDecoder;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Future;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.StringUtils;
@@ -21,11 +43,22 @@ import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.jsls.core.Verifiable;
 
 public class WebUtils {
 
     public static final Logger logger = LoggerFactory.getLogger(WebUtils.class);
+    /**
+     * json数组流式输出时每写出多少个元素刷新一次
+     */
+    public static final int JSON_FLUSH_SIZE = 200;
+    private static final int PROXY_BUFFER_SIZE = 1024 * 32;
+    private static final String[] PROXY_REQUEST_HEADERS = { "Range", "If-Range" };
+    private static final String[] PROXY_RESPONSE_HEADERS = { "Content-Type", "Content-Length", "Content-Range",
+            "Accept-Ranges", "ETag", "Last-Modified" };
 
     public static void download(HttpServletResponse response, String fullUrl, String originalFilename) {
         HttpUtils.request(fullUrl, resp -> {
@@ -39,6 +72,59 @@ public class WebUtils {
         });
     }
 
+    /**
+     * 异步代理下载远程文件
+     * <p>
+     * 1.通过servlet异步模式和异步http客户端转发,等待上游和下游时都不占用容器线程
+     * <p>
+     * 2.下游不可写时暂停读取上游数据,可写后恢复,内存占用固定
+     * <p>
+     * 3.转发Range/If-Range请求头,支持断点续传;容器不支持异步时退化为同步下载
+     * <p>
+     * 调用后不能再操作response
+     * 
+     * @param fullUrl
+     * @param fileName
+     * @param request
+     * @param response
+     */
+    public static void proxyDownload(String fullUrl, String fileName, HttpServletRequest request,
+            HttpServletResponse response) {
+        if (!request.isAsyncSupported()) {
+            download(response, fullUrl, fileName);
+            return;
+        }
+        HttpGet httpGet = new HttpGet(fullUrl);
+        // 按文件配置设置超时(读超时60秒),避免按url选到默认配置
+        httpGet.setConfig(HttpUtils.useRequestConfig(HttpUtils.useProfile(HttpClientProfile.FILE)));
+        for (String head : PROXY_REQUEST_HEADERS) {
+            String value = request.getHeader(head);
+            if (StringUtils.hasText(value)) {
+                httpGet.setHeader(head, value);
+            }
+        }
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        ProxyConsumer consumer = new ProxyConsumer(asyncContext, response, fileName);
+        consumer.future = HttpUtils.requestAsync(httpGet, consumer, new FutureCallback<Long>() {
+            @Override
+            public void completed(Long result) {
+                logger.debug("代理下载完成:{} {}字节", fullUrl, result);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                logger.error("代理下载异常：" + e.getMessage(), e);
+                consumer.fail();
+            }
+
+            @Override
+            public void cancelled() {
+                consumer.fail();
+            }
+        });
+    }
+
     /**
      * 发送文件
      * 
@@ -60,7 +146,26 @@ public class WebUtils {
             fileName = file.getName();
         }
         downloadHeader(fileName, response);
-        sendFile(IOUtils.useInputStream(file), response);
+        sendFile(file, getRequest(), response);
+    }
+
+    /**
+     * 下载文件,支持断点续传,容器支持时以sendfile零拷贝方式发送
+     * <p>
+     * sendfile在请求处理结束后才由容器发送,文件在此之前不能删除
+     * 
+     * @param file
+     * @param fileName
+     * @param request
+     * @param response
+     */
+    public static void download(File file, String fileName, HttpServletRequest request,
+            HttpServletResponse response) {
+        if (!StringUtils.hasText(fileName)) {
+            fileName = file.getName();
+        }
+        downloadHeader(fileName, response);
+        sendFile(file, true, request, response);
     }
 
     public static void download(List<File> fileList, String fileName, HttpServletResponse response) throws IOException {
@@ -87,29 +192,239 @@ public class WebUtils {
         }
     }
 
+    /**
+     * 发送文件,支持Range/If-Range断点续传,设置Content-Length
+     * <p>
+     * 通过FileChannel.transferTo分块写入响应;响应流不是文件通道,数据仍经堆内缓冲复制,零拷贝需使用sendfile
+     * 
+     * @param file
+     * @param request  为null时不处理Range
+     * @param response
+     */
+    public static void sendFile(File file, HttpServletRequest request, HttpServletResponse response) {
+        sendFile(file, false, request, response);
+    }
+
+    /**
+     * 发送文件,支持Range/If-Range断点续传,设置Content-Length
+     * <p>
+     * 1.sendfile为true且容器(tomcat)支持时交给容器以sendfile零拷贝方式发送,文件在请求处理结束前不能删除
+     * <p>
+     * 2.否则通过FileChannel.transferTo分块写入响应,数据仍经堆内缓冲复制
+     * <p>
+     * 3.只支持单个区间,多区间请求按完整文件响应
+     * 
+     * @param file
+     * @param sendfile
+     * @param request  为null时不处理Range
+     * @param response
+     */
+    public static void sendFile(File file, boolean sendfile, HttpServletRequest request,
+            HttpServletResponse response) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        long start = 0;
+        long end = length - 1;
+        String range = request == null ? null : request.getHeader("Range");
+        if (StringUtils.hasText(range) && matchIfRange(request, etag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+            if (bounds == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader("Content-Range", "bytes */" + length);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if (count <= 0) {
+            return;
+        }
+        if (sendfile && useSendfile(file, start, end + 1, request)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remain = count;
+            while (remain > 0) {
+                long n = channel.transferTo(position, remain, target);
+                if (n <= 0) {
+                    throw new IOException(file.getName() + " 文件长度已变化");
+                }
+                position += n;
+                remain -= n;
+            }
+            response.flushBuffer();
+        } catch (IOException e) {
+            logger.error("导出文件异常：" + e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * tomcat sendfile,由容器在请求处理结束后发送[start,end)区间
+     */
+    private static boolean useSendfile(File file, long start, long end, HttpServletRequest request) {
+        if (request == null || !Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+            return false;
+        }
+        try {
+            request.setAttribute("org.apache.tomcat.sendfile.filename", file.getCanonicalPath());
+        } catch (IOException e) {
+            return false;
+        }
+        request.setAttribute("org.apache.tomcat.sendfile.start", start);
+        request.setAttribute("org.apache.tomcat.sendfile.end", end);
+        return true;
+    }
+
+    private static boolean matchIfRange(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (!StringUtils.hasText(ifRange)) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            long since = request.getDateHeader("If-Range");
+            return since >= 0 && lastModified / 1000 == since / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析Range头
+     * 
+     * @param range
+     * @param length 文件长度
+     * @return null 区间无法满足; 空数组 忽略Range发送完整文件; 否则为[start,end]
+     */
+    private static long[] parseRange(String range, long length) {
+        String prefix = "bytes=";
+        range = range.trim();
+        if (!range.startsWith(prefix) || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring(prefix.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return null;
+                }
+                return new long[] { Math.max(length - suffix, 0), length - 1 };
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start >= length) {
+                return null;
+            }
+            if (end < start) {
+                return new long[0];
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
     /**
      * 发送响应数据
+     * <p>
+     * 非文本数据以json流式写出,Iterator/Iterable按json数组逐个元素写出
      * 
      * @param obj
      * @param response
      */
     public static void send(Object obj, HttpServletResponse response) {
         response.setCharacterEncoding("UTF-8");
+        if (!(obj instanceof CharSequence)) {
+            sendJson(obj, response);
+            return;
+        }
         try {
             PrintWriter pw = response.getWriter();
-            if (obj instanceof CharSequence) {
-                String text = obj.toString();
-                String contentType = "text/plain;charset=UTF-8";
-                if (Verifiable.matchFind(text, "<\\w+[^>]*>")) {
-                    contentType = "text/html;charset=UTF-8";
+            String text = obj.toString();
+            String contentType = "text/plain;charset=UTF-8";
+            if (Verifiable.matchFind(text, "<\\w+[^>]*>")) {
+                contentType = "text/html;charset=UTF-8";
+            }
+            response.setContentType(contentType);
+            pw.print(text);
+        } catch (IOException e) {
+            logger.error("发送数据异常：" + e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 以json流式发送响应数据,不生成中间字符串
+     * 
+     * @param obj
+     * @param response
+     */
+    public static void sendJson(Object obj, HttpServletResponse response) {
+        if (obj instanceof Iterator) {
+            sendJson((Iterator<?>) obj, response);
+            return;
+        }
+        if (obj instanceof Iterable && !(obj instanceof Collection)) {
+            sendJson(((Iterable<?>) obj).iterator(), response);
+            return;
+        }
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("application/json;charset=UTF-8");
+        try {
+            OutputStream out = response.getOutputStream();
+            ValueUtils.writeJSON(obj, out);
+            out.flush();
+        } catch (IOException e) {
+            logger.error("发送数据异常：" + e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 以json数组流式发送数据,元素按需从迭代器获取,内存占用与数据总量无关
+     * <p>
+     * 例如 sendJson(progress.useIterable(fetcher).iterator(), response)
+     * 
+     * @param iterator
+     * @param response
+     */
+    public static void sendJson(Iterator<?> iterator, HttpServletResponse response) {
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType("application/json;charset=UTF-8");
+        ObjectWriter writer = ValueUtils.useObjectWriter().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = writer.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            int count = 0;
+            while (iterator.hasNext()) {
+                writer.writeValue(generator, iterator.next());
+                if (++count % JSON_FLUSH_SIZE == 0) {
+                    generator.flush();
                 }
-                response.setContentType(contentType);
-                pw.print(text);
-                return;
             }
-            response.setContentType("application/json;charset=UTF-8");
-            pw.print(ValueUtils.toJSONString(obj));
-            IOUtils.closeQuietly(pw);
+            generator.writeEndArray();
         } catch (IOException e) {
             logger.error("发送数据异常：" + e.getMessage(), e);
             throw new RuntimeException(e);
@@ -249,4 +564,142 @@ public class WebUtils {
 
     }
 
+    /**
+     * 代理下载的响应消费者
+     * <p>
+     * 上游数据在io线程上读入缓冲,下游可写时写出;下游不可写时暂停上游读取,onWritePossible时写出缓冲并恢复读取
+     */
+    private static class ProxyConsumer extends AbstractAsyncResponseConsumer<Long> implements WriteListener {
+        private final AsyncContext asyncContext;
+        private final HttpServletResponse response;
+        private final String fileName;
+        private final ByteBuffer buffer = ByteBuffer.allocate(PROXY_BUFFER_SIZE);
+        private volatile Future<Long> future;
+        private ServletOutputStream out;
+        private IOControl ioControl;
+        private boolean suspended;
+        private boolean finished;
+        private boolean done;
+        private long total;
+
+        private ProxyConsumer(AsyncContext asyncContext, HttpServletResponse response, String fileName) {
+            this.asyncContext = asyncContext;
+            this.response = response;
+            this.fileName = fileName;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse httpResponse) throws IOException {
+            int status = httpResponse.getStatusLine().getStatusCode();
+            response.setStatus(status);
+            for (String head : PROXY_RESPONSE_HEADERS) {
+                Header header = httpResponse.getFirstHeader(head);
+                if (header != null) {
+                    response.setHeader(head, header.getValue());
+                }
+            }
+            if (status < 300 && StringUtils.hasText(fileName)) {
+                response.setHeader("Content-Disposition",
+                        "attachment;filename=" + encodingFileName(fileName, response));
+            }
+            synchronized (this) {
+                out = response.getOutputStream();
+            }
+            out.setWriteListener(this);
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+            // 响应头已在onResponseReceived中转发
+        }
+
+        @Override
+        protected synchronized void onContentReceived(ContentDecoder decoder, IOControl ioControl)
+                throws IOException {
+            this.ioControl = ioControl;
+            if (done) {
+                ioControl.shutdown();
+                return;
+            }
+            if (buffer.position() > 0 || !out.isReady()) {
+                ioControl.suspendInput();
+                suspended = true;
+                return;
+            }
+            if (decoder.read(buffer) > 0) {
+                writeBuffer();
+            }
+        }
+
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            if (out == null || done) {
+                return;
+            }
+            if (buffer.position() > 0) {
+                writeBuffer();
+                if (buffer.position() > 0) {
+                    return;
+                }
+            }
+            if (finished) {
+                complete();
+            } else if (suspended && out.isReady()) {
+                suspended = false;
+                ioControl.requestInput();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.warn("代理下载客户端断开：" + t.getMessage());
+            Future<Long> f = future;
+            if (f != null) {
+                f.cancel(true);
+            }
+            synchronized (this) {
+                complete();
+            }
+        }
+
+        /**
+         * 下游可写时写出缓冲
+         */
+        private void writeBuffer() throws IOException {
+            if (!out.isReady()) {
+                return;
+            }
+            buffer.flip();
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+            total += buffer.limit();
+            buffer.clear();
+        }
+
+        @Override
+        protected synchronized Long buildResult(HttpContext context) throws IOException {
+            finished = true;
+            if (buffer.position() == 0 && out != null && out.isReady()) {
+                complete();
+            }
+            return total;
+        }
+
+        @Override
+        protected void releaseResources() {
+        }
+
+        private synchronized void fail() {
+            if (!done && !response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+            }
+            complete();
+        }
+
+        private void complete() {
+            if (!done) {
+                done = true;
+                asyncContext.complete();
+            }
+        }
+    }
 }
\ No newline at end of file
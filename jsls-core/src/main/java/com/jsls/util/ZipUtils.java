@@ -5,16 +5,24 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
 
 public class ZipUtils {
     private static Logger logger = LoggerFactory.getLogger(ZipUtils.class);
 
-    private static final int BUFFER_SIZE = 1024 * 8;
+    private static final int BUFFER_SIZE = 1024 * 64;
+    /**
+     * 并行压缩时同时在压缩或等待写入的最大条目数,在途字节数另受ParallelZipWriter.MAX_PENDING_BYTES限制
+     */
+    public static final int PARALLEL_WINDOW = Runtime.getRuntime().availableProcessors() * 2;
 
     /**
      * 压缩成ZIP 方法1
@@ -26,15 +34,16 @@ public class ZipUtils {
      */
     public static void toZip(File source, OutputStream out, boolean KeepDirStructure) {
         long start = System.currentTimeMillis();
-        ZipOutputStream zos = useZipOutputStream(out);
+        ParallelZipWriter zip = useParallelZipWriter(out);
         try {
-            compress(source, zos, source.getName(), KeepDirStructure);
+            compress(source, zip, source.getName(), KeepDirStructure);
+            zip.close();
             logger.info("压缩完成 耗时:{}ms", System.currentTimeMillis() - start);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
             throw new RuntimeException("压缩zip异常:" + e.getMessage());
         } finally {
-            IOUtils.closeQuietly(zos);
+            IOUtils.closeQuietly(zip);
         }
     }
 
@@ -46,16 +55,17 @@ public class ZipUtils {
      */
     public static void toZip(List<File> srcFiles, OutputStream out) {
         long start = System.currentTimeMillis();
-        ZipOutputStream zos = useZipOutputStream(out);
+        ParallelZipWriter zip = useParallelZipWriter(out);
         try {
             for (File srcFile : srcFiles) {
-                compress(srcFile, zos, srcFile.getName(), true);
+                compress(srcFile, zip, srcFile.getName(), true);
             }
+            zip.close();
             logger.info("压缩完成 耗时:{}ms", System.currentTimeMillis() - start);
         } catch (Exception e) {
             throw new RuntimeException("压缩zip异常:" + e.getMessage());
         } finally {
-            IOUtils.closeQuietly(zos);
+            IOUtils.closeQuietly(zip);
         }
     }
 
@@ -71,7 +81,14 @@ public class ZipUtils {
     public static void compress(File sourceFile, ZipOutputStream zos, String name,
             boolean KeepDirStructure) throws IOException {
         if (sourceFile.isFile()) {
-            zos.putNextEntry(new ZipEntry(name));
+            ZipEntry entry = new ZipEntry(name);
+            if (ParallelZipWriter.isStored(name)) {
+                // 已压缩的文件直接存储,STORED方式需要预先计算crc和大小
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(sourceFile.length());
+                entry.setCrc(useCrc(sourceFile));
+            }
+            zos.putNextEntry(entry);
             FileInputStream in = IOUtils.useInputStream(sourceFile);
             IOUtils.write(in, zos, BUFFER_SIZE);
             IOUtils.closeQuietly(in);
@@ -97,7 +114,67 @@ public class ZipUtils {
         }
     }
 
+    /**
+     * 递归压缩方法,文件在线程池中并行压缩
+     * 
+     * @param sourceFile       源文件
+     * @param zip              zip输出
+     * @param name             压缩后的名称
+     * @param KeepDirStructure 是否保留原来的目录结构
+     */
+    public static void compress(File sourceFile, ParallelZipWriter zip, String name,
+            boolean KeepDirStructure) throws IOException {
+        if (sourceFile.isFile()) {
+            zip.addFile(sourceFile, name);
+            return;
+        }
+        File[] listFiles = sourceFile.listFiles();
+        if (listFiles != null && listFiles.length > 0) {
+            for (File file : listFiles) {
+                if (KeepDirStructure) {
+                    compress(file, zip, name + "/" + file.getName(), KeepDirStructure);
+                } else {
+                    compress(file, zip, file.getName(), KeepDirStructure);
+                }
+            }
+            return;
+        }
+        if (KeepDirStructure) {
+            zip.addDirectory(name + "/");
+        }
+    }
+
+    private static long useCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (FileInputStream in = IOUtils.useInputStream(file)) {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                crc.update(buf, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
     public static ZipOutputStream useZipOutputStream(OutputStream out) {
         return new ZipOutputStream(out);
     }
+
+    /**
+     * 并行压缩的zip输出,使用spring容器中的AsyncTaskExecutor,没有时使用ForkJoinPool.commonPool()
+     * 
+     * @param out
+     * @return
+     */
+    public static ParallelZipWriter useParallelZipWriter(OutputStream out) {
+        return new ParallelZipWriter(out, useExecutor(), PARALLEL_WINDOW);
+    }
+
+    private static Executor useExecutor() {
+        try {
+            return SpringContextHolder.getBean(AsyncTaskExecutor.class);
+        } catch (Exception e) {
+            return ForkJoinPool.commonPool();
+        }
+    }
 }
\ No newline at end of file